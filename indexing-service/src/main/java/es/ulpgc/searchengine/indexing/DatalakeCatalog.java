@@ -0,0 +1,221 @@
+package es.ulpgc.searchengine.indexing;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Where each book lives in the datalake, kept in {@code catalog.tsv} at its root so nobody has to
+ * walk the {@code YYYYMMDD/HH/mm/bookId} tree to find one. Lines are appended as books are saved
+ * (book id, relative directory, size, ingest time, CRC32 of raw.txt) and a later line for the
+ * same book replaces the earlier one.
+ *
+ * <p>Readers pick up lines appended by other processes by reading from where they stopped. If
+ * the file does not exist the catalog is rebuilt from a directory scan, and written back when the
+ * datalake is writable; a read-only reader keeps the scan in memory and scans again, at most
+ * once every {@value #RESCAN_INTERVAL_MS} ms, until the file appears.
+ *
+ * <p>The ingestion service writes the catalog through this same class, so both sides always agree
+ * on its format. A book is added only once all its files are written.
+ */
+public final class DatalakeCatalog {
+
+    public static final String FILE_NAME = "catalog.tsv";
+    private static final long RESCAN_INTERVAL_MS = 5000;
+
+    public static final class Entry {
+        public final int bookId;
+        public final Path dir;
+        public final long size;
+        public final long ingestedAt;
+        /** CRC32 of raw.txt (body.txt for older books); 0 when not computed. */
+        public final long checksum;
+
+        Entry(int bookId, Path dir, long size, long ingestedAt, long checksum) {
+            this.bookId = bookId;
+            this.dir = dir;
+            this.size = size;
+            this.ingestedAt = ingestedAt;
+            this.checksum = checksum;
+        }
+    }
+
+    private final Path base;
+    private final Path file;
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    /** Bytes of the file already read; -1 while the entries come from a scan. */
+    private long offset = -1;
+    /** When the last scan started, to keep misses from walking the whole tree each time. */
+    private long lastScan;
+
+    private DatalakeCatalog(Path base) {
+        this.base = base;
+        this.file = base.resolve(FILE_NAME);
+    }
+
+    public static DatalakeCatalog open(Path base) {
+        DatalakeCatalog catalog = new DatalakeCatalog(base);
+        synchronized (catalog) {
+            if (Files.exists(catalog.file)) {
+                catalog.refresh();
+            } else {
+                boolean writable = Files.isDirectory(base) && Files.isWritable(base);
+                catalog.rescan(writable);
+                if (writable) catalog.writeAll();
+            }
+        }
+        return catalog;
+    }
+
+    /** The book's entry, or null if it is not in the datalake. */
+    public synchronized Entry get(int bookId) {
+        Entry entry = entries.get(bookId);
+        if (entry != null) return entry;
+        refresh();
+        return entries.get(bookId);
+    }
+
+    public boolean contains(int bookId) {
+        return get(bookId) != null;
+    }
+
+    /** Number of books, after picking up lines appended by other processes. */
+    public synchronized int size() {
+        refresh();
+        return entries.size();
+    }
+
+    /** Every book, ordered by id. */
+    public synchronized List<Entry> entries() {
+        refresh();
+        List<Entry> all = new ArrayList<>(entries.values());
+        all.sort(Comparator.comparingInt(e -> e.bookId));
+        return all;
+    }
+
+    /** Records a book just written to {@code dir}; {@code raw} is what was saved as raw.txt. */
+    public synchronized void put(int bookId, Path dir, byte[] raw) throws IOException {
+        Entry entry = new Entry(bookId, dir, raw.length, System.currentTimeMillis(), crc32(raw));
+        refresh();
+        if (offset < 0) {   // el fichero debe contener también lo escaneado
+            rescan(true);
+            writeAll();
+        }
+        Files.writeString(file, line(entry), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        entries.put(bookId, entry);
+    }
+
+    /** Reads lines appended since the last call; without a file the tree is scanned again, now and then. */
+    private void refresh() {
+        try {
+            if (!Files.exists(file)) {
+                if (offset >= 0 || System.currentTimeMillis() - lastScan >= RESCAN_INTERVAL_MS) rescan(false);
+                return;
+            }
+            long size = Files.size(file);
+            if (offset < 0 || size < offset) {
+                entries.clear();
+                offset = 0;
+            }
+            if (size == offset) return;
+
+            byte[] bytes = new byte[(int) (size - offset)];
+            try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+                in.seek(offset);
+                in.readFully(bytes);
+            }
+            int end = bytes.length;
+            while (end > 0 && bytes[end - 1] != '\n') end--;   // una línea a medio escribir se lee la próxima vez
+            for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+                Entry entry = parse(line);
+                if (entry != null) entries.put(entry.bookId, entry);
+            }
+            offset += end;
+
+        } catch (IOException e) {
+            System.err.println("[Catalog] Error reading " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Finds every {@code YYYYMMDD/HH/mm/bookId} directory; checksums are only computed on request. */
+    private void rescan(boolean checksums) {
+        entries.clear();
+        offset = -1;
+        lastScan = System.currentTimeMillis();
+        if (!Files.isDirectory(base)) return;
+
+        try (Stream<Path> stream = Files.walk(base, 4)) {
+            stream.filter(p -> base.relativize(p).getNameCount() == 4)
+                    .filter(Files::isDirectory)
+                    .forEach(dir -> {
+                        Entry entry = scanned(dir, checksums);
+                        if (entry != null) entries.put(entry.bookId, entry);
+                    });
+        } catch (IOException e) {
+            System.err.println("[Catalog] Error scanning " + base + ": " + e.getMessage());
+        }
+    }
+
+    private Entry scanned(Path dir, boolean checksum) {
+        int bookId;
+        try {
+            bookId = Integer.parseInt(dir.getFileName().toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        try {
+            Path raw = dir.resolve("raw.txt");
+            Path content = Files.exists(raw) ? raw : dir.resolve("body.txt");
+            long size = Files.exists(content) ? Files.size(content) : 0;
+            long crc = checksum && size > 0 ? crc32(Files.readAllBytes(content)) : 0;
+            return new Entry(bookId, dir, size, Files.getLastModifiedTime(dir).toMillis(), crc);
+        } catch (IOException e) {
+            System.err.println("[Catalog] Error reading " + dir + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Persists the scanned catalog. */
+    private void writeAll() {
+        try {
+            List<Entry> all = new ArrayList<>(entries.values());
+            all.sort(Comparator.comparingInt(e -> e.bookId));
+            StringBuilder out = new StringBuilder();
+            for (Entry entry : all) out.append(line(entry));
+            Path tmp = base.resolve(FILE_NAME + ".tmp");
+            Files.writeString(tmp, out, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            offset = Files.size(file);
+            System.out.println("[Catalog] Rebuilt " + file + " with " + entries.size() + " books");
+        } catch (IOException e) {
+            System.err.println("[Catalog] Error writing " + file + ": " + e.getMessage());
+        }
+    }
+
+    private String line(Entry e) {
+        String dir = base.relativize(e.dir).toString().replace('\\', '/');
+        return e.bookId + "\t" + dir + "\t" + e.size + "\t" + e.ingestedAt + "\t" + Long.toHexString(e.checksum) + "\n";
+    }
+
+    private Entry parse(String line) {
+        String[] f = line.split("\t");
+        if (f.length < 5) return null;
+        try {
+            return new Entry(Integer.parseInt(f[0]), base.resolve(f[1]), Long.parseLong(f[2]),
+                    Long.parseLong(f[3]), Long.parseLong(f[4], 16));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,74 @@
+package es.ulpgc.searchengine.indexing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One book indexed on request, identified by a ticket, with the time spent in each stage:
+ * lookup in the catalog, hash (to skip unchanged books), metadata, tokenize and write, which
+ * includes waiting for the group commit it joins.
+ */
+public final class IndexUpdate {
+
+    public enum State { QUEUED, RUNNING, INDEXED, UNCHANGED, NOT_FOUND, FAILED }
+
+    public final String ticket = UUID.randomUUID().toString();
+    public final int bookId;
+    /** Completes once the update is finished, whatever its outcome. */
+    public final CompletableFuture<State> done = new CompletableFuture<>();
+
+    private volatile State state = State.QUEUED;
+    private volatile String error;
+    private final Map<String, Double> stagesMs = new LinkedHashMap<>();
+    private final long submittedAt = System.currentTimeMillis();
+    private final long submittedNanos = System.nanoTime();
+    private volatile long finishedNanos;
+
+    IndexUpdate(int bookId) {
+        this.bookId = bookId;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public boolean isFinished() {
+        return done.isDone();
+    }
+
+    void running() {
+        state = State.RUNNING;
+    }
+
+    /** Records a stage that started at {@code since} (nanoTime) and returns the current time. */
+    long stage(String name, long since) {
+        long now = System.nanoTime();
+        synchronized (stagesMs) {
+            stagesMs.put(name, (now - since) / 10_000 / 100.0);
+        }
+        return now;
+    }
+
+    void finish(State state, String error) {
+        this.error = error;
+        this.finishedNanos = System.nanoTime();
+        this.state = state;
+        done.complete(state);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("ticket", ticket);
+        info.put("book_id", bookId);
+        info.put("state", state.name().toLowerCase());
+        if (error != null) info.put("error", error);
+        info.put("submitted_at", submittedAt);
+        synchronized (stagesMs) {
+            info.put("stages_ms", new LinkedHashMap<>(stagesMs));
+        }
+        if (finishedNanos > 0) info.put("total_ms", (finishedNanos - submittedNanos) / 10_000 / 100.0);
+        return info;
+    }
+}
@@ -1,90 +1,413 @@
 package es.ulpgc.searchengine.indexing;
 
-import es.ulpgc.searchengine.indexing.repository.DatamartSQLite;
+import es.ulpgc.searchengine.indexing.index.BookIndex;
+import es.ulpgc.searchengine.indexing.index.ChunkedTextReader;
+import es.ulpgc.searchengine.indexing.index.TermTable;
+import es.ulpgc.searchengine.indexing.index.Tokenizer;
+import es.ulpgc.searchengine.indexing.repository.GroupCommitWriter;
+import es.ulpgc.searchengine.indexing.repository.IndexStore;
 import es.ulpgc.searchengine.indexing.MetadataExtractor.Meta;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 public class Indexer {
 
-    private final DatamartSQLite repository;
+    /** Se mezcla en el hash del contenido: subirlo cuando cambie lo que se extrae de un libro */
+    private static final int INDEX_FORMAT = 1;
+    private static final int DEFAULT_COMMIT_BOOKS = 64;
+    private static final long DEFAULT_COMMIT_DELAY_MS = 20;
+    /** Trabajos terminados que se recuerdan para consultarlos por id */
+    private static final int MAX_JOBS = 20;
+    /** Actualizaciones terminadas que se recuerdan para consultar su ticket */
+    private static final int MAX_UPDATES = 1000;
+
+    private final IndexStore repository;
+    private final GroupCommitWriter committer;
+    private final DatalakeCatalog catalog;
+    /** Hash del contenido de cada libro ya escrito, para saltar los que no han cambiado */
+    private final Map<Integer, String> indexedHashes;
+    private final LongAdder unchanged = new LongAdder();
+    private final int workers;
+    /** Los trabajos de reconstrucción se ejecutan de uno en uno en este hilo */
+    private final ExecutorService jobRunner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "index-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, RebuildJob> jobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RebuildJob> eldest) {
+            return size() > MAX_JOBS && eldest.getValue().state().compareTo(RebuildJob.State.RUNNING) > 0;
+        }
+    });
+    /** Actualizaciones asíncronas pedidas por HTTP */
+    private final ExecutorService updateRunner;
+    private final Map<String, IndexUpdate> updates = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IndexUpdate> eldest) {
+            return size() > MAX_UPDATES && eldest.getValue().isFinished();
+        }
+    });
+    /** Estadísticas del datalake y número de libros con que se calcularon */
+    private volatile Map<String, Object> datalakeStats = Map.of();
+    private volatile int datalakeStatsBooks = -1;
     private static final String DATALAKE_PATH = "./datalake";
 
-    public Indexer(DatamartSQLite repository) {
+    public Indexer(IndexStore repository) {
+        this(repository, Runtime.getRuntime().availableProcessors(), DEFAULT_COMMIT_BOOKS, DEFAULT_COMMIT_DELAY_MS);
+    }
+
+    /**
+     * @param workers         threads that read and tokenize books in parallel during a rebuild
+     * @param commitBooks     most books folded into one commit
+     * @param commitDelayMillis longest a book waits for others to share its commit
+     */
+    public Indexer(IndexStore repository, int workers, int commitBooks, long commitDelayMillis) {
         this.repository = repository;
+        this.committer = new GroupCommitWriter(repository, commitBooks, commitDelayMillis);
+        this.workers = Math.max(1, workers);
+        this.updateRunner = Executors.newFixedThreadPool(this.workers, r -> {
+            Thread thread = new Thread(r, "index-update");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.catalog = DatalakeCatalog.open(Paths.get(DATALAKE_PATH));
+        this.indexedHashes = new ConcurrentHashMap<>(repository.contentHashes());
     }
 
-    /** NUEVO: método thread-safe llamado desde el consumidor JMS */
-    public synchronized boolean indexDocument(int bookId) {
-        return indexBook(bookId);
+    /**
+     * Llamado desde el consumidor JMS: prepara el libro en el hilo que llama y lo encola para el
+     * siguiente commit agrupado, sin esperar a que se escriba. El futuro da true si el libro está
+     * en el índice (escrito o sin cambios), false si no se podrá indexar nunca (no existe, está
+     * vacío) y termina con excepción en cualquier otro fallo (lectura, escritura, parada), que
+     * puede reintentarse.
+     */
+    public CompletableFuture<Boolean> indexDocument(int bookId) {
+        Path bookDir = findBookDirectory(bookId);
+        if (bookDir == null) {
+            System.err.println("Error indexing book " + bookId + ": not found in datalake.");
+            return CompletableFuture.completedFuture(false);
+        }
+        return prepareAndSubmit(bookId, bookDir, false, null);
     }
 
     public boolean indexBook(int bookId) {
-        try {
-            Path bookDir = findBookDirectory(bookId);
-            if (bookDir == null) throw new IllegalStateException("Book " + bookId + " not found in datalake.");
+        return written(indexDocument(bookId));
+    }
+
+    /**
+     * Indexes the book on the calling thread through the same group commit as the JMS consumer;
+     * the returned update finishes once the book is written.
+     */
+    public IndexUpdate update(int bookId) {
+        IndexUpdate update = new IndexUpdate(bookId);
+        updates.put(update.ticket, update);
+        runUpdate(update);
+        return update;
+    }
 
-            Path header = bookDir.resolve("header.txt");
-            Path body = bookDir.resolve("body.txt");
+    /** Like {@link #update} but the book is read and tokenized on a background thread. */
+    public IndexUpdate submitUpdate(int bookId) {
+        IndexUpdate update = new IndexUpdate(bookId);
+        updates.put(update.ticket, update);
+        try {
+            updateRunner.execute(() -> runUpdate(update));
+        } catch (RejectedExecutionException e) {
+            update.finish(IndexUpdate.State.FAILED, "Indexer is shutting down");
+        }
+        return update;
+    }
 
-            if (!Files.exists(header) || !Files.exists(body))
-                throw new IllegalStateException("Missing header/body for " + bookId);
+    /** The update with that ticket, or null if it is unknown or too old. */
+    public IndexUpdate updateStatus(String ticket) {
+        return updates.get(ticket);
+    }
 
-            Meta meta = MetadataExtractor.extract(header);
-            String content = Files.readString(body);
+    private void runUpdate(IndexUpdate update) {
+        int bookId = update.bookId;
+        update.running();
+        try {
+            long start = System.nanoTime();
+            Path dir = findBookDirectory(bookId);
+            start = update.stage("lookup", start);
+            if (dir == null) {
+                update.finish(IndexUpdate.State.NOT_FOUND, "Book " + bookId + " not found in datalake.");
+                return;
+            }
 
-            if (content.isBlank())
-                throw new IllegalStateException("Empty content for book " + bookId);
+            BookIndex book = prepare(bookId, dir, false, update);
+            if (book == null) {
+                unchanged.increment();
+                update.finish(IndexUpdate.State.UNCHANGED, null);
+                return;
+            }
+            long writeStart = System.nanoTime();
+            submit(book).whenComplete((ok, error) -> {
+                update.stage("write", writeStart);
+                if (error == null) update.finish(IndexUpdate.State.INDEXED, null);
+                else update.finish(IndexUpdate.State.FAILED, "Book " + bookId + " could not be written");
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            update.finish(IndexUpdate.State.FAILED, "Interrupted");
+        } catch (Exception e) {
+            logError("Error indexing book " + bookId, e);
+            update.finish(IndexUpdate.State.FAILED, e.getMessage());
+        }
+    }
 
-            Map<String, List<Integer>> index = buildInvertedIndex(content);
+    public int rebuildAll() {
+        return rebuildAll(false);
+    }
 
-            repository.deleteIndexForBook(bookId);
-            repository.insertOrUpdateBook(bookId, meta.title, meta.author, meta.language, meta.year, content);
-            repository.insertIndex(bookId, index);
+    /** Rebuilds the index on the calling thread with every worker and no read limit. */
+    public int rebuildAll(boolean force) {
+        RebuildJob job = new RebuildJob(force, workers, 0);
+        runRebuild(job);
+        return job.succeeded();
+    }
 
-            System.out.printf("Indexed %d (%d terms): %s by %s%n",
-                    bookId, index.size(), meta.title, meta.author);
+    /**
+     * Queues a rebuild on the background job thread and returns at once. Only one job is queued
+     * or running at a time; asking for another meanwhile throws IllegalStateException.
+     * {@code threads <= 0} uses every worker and {@code ioBytesPerSec == 0} reads without a limit.
+     */
+    public RebuildJob submitRebuild(boolean force, int threads, long ioBytesPerSec) {
+        RebuildJob job = new RebuildJob(force, threads > 0 ? threads : workers, ioBytesPerSec);
+        synchronized (jobs) {
+            for (RebuildJob other : jobs.values()) {
+                if (other.state().compareTo(RebuildJob.State.RUNNING) <= 0)
+                    throw new IllegalStateException("Rebuild " + other.id + " is " + other.state().name().toLowerCase());
+            }
+            jobs.put(job.id, job);
+        }
+        jobRunner.execute(() -> runRebuild(job));
+        return job;
+    }
 
-            return true;
+    /** The job with that id, or null if it is unknown or was forgotten to make room for newer ones. */
+    public RebuildJob job(String id) {
+        return jobs.get(id);
+    }
 
-        } catch (Exception e) {
-            logError("Error indexing book " + bookId, e);
-            return false;
+    public List<Map<String, Object>> jobs() {
+        List<Map<String, Object>> all = new ArrayList<>();
+        synchronized (jobs) {
+            for (RebuildJob job : jobs.values()) all.add(job.snapshot());
         }
+        return all;
     }
 
-    public int rebuildAll() {
+    /**
+     * Runs a rebuild with {@code job.threads} threads reading and tokenizing books and handing
+     * them to the group commit writer, which blocks them while its queue is full so indexed
+     * books never pile up in memory. Books whose content is unchanged are skipped unless the job
+     * forces them.
+     */
+    private void runRebuild(RebuildJob job) {
+        if (job.isCancelled()) {
+            job.start(0);
+            job.finish(RebuildJob.State.CANCELLED);
+            return;
+        }
+        ExecutorService pool = null;
         try {
-            List<Path> bookDirs = findAllBookDirectories();
-            AtomicInteger success = new AtomicInteger();
-            int total = bookDirs.size();
+            List<DatalakeCatalog.Entry> books = catalog.entries();
+            int total = books.size();
+            job.start(total);
 
-            System.out.println("Starting index rebuild for " + total + " books...");
-            for (Path dir : bookDirs) {
-                int bookId = safeParseInt(dir.getFileName().toString());
-                if (bookId > 0 && indexBook(bookId)) success.incrementAndGet();
+            System.out.println("Starting index rebuild " + job.id + " for " + total + " books with "
+                    + job.threads + " workers...");
+            pool = Executors.newFixedThreadPool(job.threads);
+            List<CompletableFuture<Boolean>> pending = new ArrayList<>(total);
+            for (DatalakeCatalog.Entry entry : books) {
+                pending.add(CompletableFuture.supplyAsync(() -> rebuildBook(job, entry), pool)
+                        .thenCompose(Function.identity()));
             }
-            System.out.printf("Rebuild completed: %d/%d books.%n", success.get(), total);
-            return success.get();
+            for (CompletableFuture<Boolean> book : pending) written(book);
+
+            job.finish(job.isCancelled() ? RebuildJob.State.CANCELLED : RebuildJob.State.COMPLETED);
+            Map<String, Object> summary = job.snapshot();
+            System.out.printf("Rebuild %s %s: %d/%d books (%s unchanged, %s skipped).%n",
+                    job.id, summary.get("state"), job.succeeded(), total,
+                    summary.get("unchanged"), summary.get("skipped"));
 
         } catch (Exception e) {
             logError("Error rebuilding index", e);
-            return 0;
+            job.failed(0, e.getMessage());
+            job.finish(RebuildJob.State.FAILED);
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+    }
+
+    private CompletableFuture<Boolean> rebuildBook(RebuildJob job, DatalakeCatalog.Entry entry) {
+        if (job.isCancelled()) {
+            job.skipped();
+            return CompletableFuture.completedFuture(false);
+        }
+        try {
+            job.throttle(entry.size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.skipped();
+            return CompletableFuture.completedFuture(false);
+        }
+        return prepareAndSubmit(entry.bookId, entry.dir, job.force, job);
+    }
+
+    /** Escribe lo que quede en cola; se llama al parar el servicio. */
+    public void close() {
+        synchronized (jobs) {
+            jobs.values().forEach(RebuildJob::cancel);
+        }
+        jobRunner.shutdown();
+        updateRunner.shutdown();
+        committer.close();
+        repository.close();
+    }
+
+    /**
+     * Prepares and queues a book; {@code job}, when given, is told how it went. Only a book that
+     * can never be indexed gives false; any other failure ends the future exceptionally.
+     */
+    private CompletableFuture<Boolean> prepareAndSubmit(int bookId, Path dir, boolean force, RebuildJob job) {
+        try {
+            BookIndex book = prepare(bookId, dir, force, null);
+            if (book == null) {
+                unchanged.increment();
+                if (job != null) job.unchanged();
+                return CompletableFuture.completedFuture(true);
+            }
+            CompletableFuture<Boolean> written = submit(book);
+            if (job == null) return written;
+            return written.whenComplete((ok, error) -> {
+                if (error == null) job.written();
+                else job.failed(bookId, error.getCause() != null ? error.getCause().getMessage() : error.getMessage());
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        } catch (UnindexableBookException e) {
+            logError("Error indexing book " + bookId, e);
+            if (job != null) job.failed(bookId, e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        } catch (Exception e) {
+            logError("Error indexing book " + bookId, e);
+            if (job != null) job.failed(bookId, e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Reads and tokenizes a book, or returns null without tokenizing when its header and body
+     * hash to what was last written and {@code force} is not set. The body is streamed twice,
+     * to hash it and to tokenize it, so memory does not grow with the size of the file apart
+     * from the positions themselves. Runs on any thread; {@code update}, when given, gets the time
+     * spent in each stage.
+     */
+    private BookIndex prepare(int bookId, Path bookDir, boolean force, IndexUpdate update) throws Exception {
+        Path header = bookDir.resolve("header.txt");
+        Path body = bookDir.resolve("body.txt");
+
+        if (!Files.exists(header) || !Files.exists(body))
+            throw new IllegalStateException("Missing header/body for " + bookId);
+
+        long start = System.nanoTime();
+        CRC32 hashed = new CRC32();
+        String hash = contentHash(Files.readAllBytes(header), body, hashed);
+        start = lap(update, "hash", start);
+        if (!force && hash.equals(indexedHashes.get(bookId))) return null;
+
+        Meta meta = MetadataExtractor.extract(header);
+        start = lap(update, "metadata", start);
+        CRC32 tokenized = new CRC32();
+        TermTable terms = buildInvertedIndex(body, tokenized);
+        lap(update, "tokenize", start);
+
+        // Reescrito entre las dos lecturas: el hash no sería el de lo tokenizado
+        if (tokenized.getValue() != hashed.getValue())
+            throw new IOException("Body of book " + bookId + " changed while it was being indexed");
+        if (terms == null)
+            throw new UnindexableBookException("Empty content for book " + bookId);
+
+        return new BookIndex(bookId, meta.title, meta.author, meta.language, meta.year,
+                body, hash, tokenized.getValue(), terms);
+    }
+
+    private static long lap(IndexUpdate update, String stage, long since) {
+        return update != null ? update.stage(stage, since) : since;
+    }
+
+    /** {@code bodyChecksum} is also fed the body, to compare with later reads of it. */
+    private static String contentHash(byte[] header, Path body, Checksum bodyChecksum)
+            throws IOException, NoSuchAlgorithmException {
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        sha.update((byte) INDEX_FORMAT);
+        sha.update(ByteBuffer.allocate(Integer.BYTES).putInt(header.length).array());
+        sha.update(header);
+
+        ByteBuffer buf = ByteBuffer.allocate(ChunkedTextReader.CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(body, StandardOpenOption.READ)) {
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                bodyChecksum.update(buf.array(), 0, buf.limit());
+                sha.update(buf);
+                buf.clear();
+            }
         }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    private CompletableFuture<Boolean> submit(BookIndex book) throws InterruptedException {
+        return committer.submit(book).thenApply(ok -> {
+            if (!ok) throw new IllegalStateException("Book " + book.bookId + " could not be written");
+            indexedHashes.put(book.bookId, book.contentHash);
+            logIndexed(book);
+            return true;
+        });
+    }
+
+    private static boolean written(CompletableFuture<Boolean> book) {
+        return book.handle((ok, error) -> ok != null && ok).join();
+    }
+
+    private void logIndexed(BookIndex book) {
+        System.out.printf("Indexed %d (%d terms): %s by %s%n",
+                book.bookId, book.terms.size(), book.title, book.author);
     }
 
     public Map<String, Object> getStatus() {
         Map<String, Object> status = new HashMap<>();
         status.put("indexing_stats", repository.getStats());
+        status.put("writer_stats", committer.stats());
+        status.put("unchanged_skipped", unchanged.sum());
         status.put("datalake_stats", getDatalakeStats());
         status.put("last_operation", new Date().toString());
         return status;
     }
 
+    /** Recomputed only when the catalog has gained or lost books since the last call. */
     private Map<String, Object> getDatalakeStats() {
+        int books = catalog.size();
+        if (books == datalakeStatsBooks) return datalakeStats;
+
         Map<String, Object> stats = new HashMap<>();
         try {
             List<Path> bookDirs = findAllBookDirectories();
@@ -108,51 +431,62 @@ public class Indexer {
             stats.put("structure", "YYYYMMDD/HH/mm/bookId/");
         } catch (Exception e) {
             stats.put("error", e.getMessage());
+            return stats;
         }
+        datalakeStats = stats;
+        datalakeStatsBooks = books;
         return stats;
     }
 
-    private Map<String, List<Integer>> buildInvertedIndex(String text) {
-        Map<String, List<Integer>> index = new HashMap<>();
-        String[] tokens = text.toLowerCase()
-                .replaceAll("[^a-záéíóúüñ\\s]", " ")
-                .split("\\s+");
+    /**
+     * Posiciones de cada término, leyendo el cuerpo por bloques; solo se crea un String la primera
+     * vez que aparece un término. Devuelve null si el cuerpo está en blanco.
+     */
+    private TermTable buildInvertedIndex(Path body, Checksum checksum) throws IOException {
+        TermTable index = new TermTable();
+        Tokenizer tokenizer = new Tokenizer();
+        Tokenizer.Sink sink = index::add;
+        boolean blank = true;
 
-        for (int i = 0; i < tokens.length; i++) {
-            String word = tokens[i].trim();
-            if (word.length() > 2)
-                index.computeIfAbsent(word, k -> new ArrayList<>()).add(i);
+        try (ChunkedTextReader reader = new ChunkedTextReader(body, checksum)) {
+            CharBuffer chunk;
+            while ((chunk = reader.next()) != null) {
+                if (blank) blank = isBlank(chunk);
+                tokenizer.feed(chunk, sink);
+            }
         }
-        return index;
+        tokenizer.finish(sink);
+        return blank ? null : index;
     }
 
-    private Path findBookDirectory(int bookId) throws Exception {
-        try (Stream<Path> stream = Files.walk(Paths.get(DATALAKE_PATH))) {
-            return stream.filter(Files::isDirectory)
-                    .filter(p -> p.getFileName().toString().equals(String.valueOf(bookId)))
-                    .findFirst().orElse(null);
+    private static boolean isBlank(CharSequence chunk) {
+        for (int i = 0; i < chunk.length(); i++) {
+            if (!Character.isWhitespace(chunk.charAt(i))) return false;
         }
+        return true;
     }
 
-    private List<Path> findAllBookDirectories() throws Exception {
-        try (Stream<Path> stream = Files.walk(Paths.get(DATALAKE_PATH))) {
-            return stream.filter(Files::isDirectory)
-                    .filter(p -> {
-                        String name = p.getFileName().toString();
-                        return name.matches("\\d+") &&      // bookId
-                                !name.matches("\\d{8}") &&   // fecha
-                                !name.matches("\\d{2}");     // hour/minute
-                    })
-                    .toList();
-        }
+    private Path findBookDirectory(int bookId) {
+        DatalakeCatalog.Entry entry = catalog.get(bookId);
+        return entry != null ? entry.dir : null;
     }
 
-    private int safeParseInt(String s) {
-        try { return Integer.parseInt(s); }
-        catch (NumberFormatException e) { return -1; }
+    private List<Path> findAllBookDirectories() {
+        List<Path> dirs = new ArrayList<>();
+        for (DatalakeCatalog.Entry entry : catalog.entries()) {
+            dirs.add(entry.dir);
+        }
+        return dirs;
     }
 
     private void logError(String msg, Exception e) {
         System.err.println(msg + ": " + e.getMessage());
     }
+
+    /** El libro no se podrá indexar por mucho que se reintente. */
+    private static final class UnindexableBookException extends Exception {
+        UnindexableBookException(String message) {
+            super(message);
+        }
+    }
 }
\ No newline at end of file
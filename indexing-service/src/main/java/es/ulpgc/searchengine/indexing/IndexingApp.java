@@ -2,11 +2,19 @@ package es.ulpgc.searchengine.indexing;
 
 import io.javalin.Javalin;
 import es.ulpgc.searchengine.indexing.repository.DatamartSQLite;
+import es.ulpgc.searchengine.indexing.repository.IndexStore;
 import es.ulpgc.searchengine.indexing.messaging.IndexingEventConsumer;
+import es.ulpgc.searchengine.indexing.segment.SegmentIndex;
+import es.ulpgc.searchengine.indexing.segment.SegmentStore;
+import es.ulpgc.searchengine.indexing.segment.TieredMergePolicy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class IndexingApp {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         int port = 7002;
 
@@ -15,17 +23,47 @@ public class IndexingApp {
         DatamartSQLite repository = new DatamartSQLite(dbPath);
         repository.initSchema();
 
-        Indexer indexer = new Indexer(repository);
-        IndexingController controller = new IndexingController(indexer);
+        // INDEX_BACKEND=segments: postings en segmentos inmutables; libros y contenido siguen en SQLite
+        IndexStore store = repository;
+        if ("segments".equalsIgnoreCase(System.getenv().getOrDefault("INDEX_BACKEND", "sqlite"))) {
+            Path segmentsDir = Paths.get(System.getenv().getOrDefault("INDEX_SEGMENTS_DIR",
+                    Paths.get(dbPath).resolveSibling("segments").toString()));
+            int mergeFactor = Integer.parseInt(System.getenv().getOrDefault("INDEX_MERGE_FACTOR", "10"));
+            long floorMb = Long.parseLong(System.getenv().getOrDefault("INDEX_MERGE_FLOOR_MB", "2"));
+            long maxSegmentMb = Long.parseLong(System.getenv().getOrDefault("INDEX_MAX_SEGMENT_MB", "1024"));
+            TieredMergePolicy policy = new TieredMergePolicy(mergeFactor, floorMb << 20, maxSegmentMb << 20);
+            store = new SegmentStore(repository, SegmentIndex.open(segmentsDir, policy));
+        }
+
+        int workers = Integer.parseInt(System.getenv().getOrDefault("INDEX_WORKERS",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int commitBooks = Integer.parseInt(System.getenv().getOrDefault("INDEX_COMMIT_BOOKS", "64"));
+        long commitDelayMs = Long.parseLong(System.getenv().getOrDefault("INDEX_COMMIT_DELAY_MS", "20"));
+        Indexer indexer = new Indexer(store, workers, commitBooks, commitDelayMs);
+        // Las reconstrucciones comparten el escritor con el consumidor JMS: se leen a ritmo limitado
+        double rebuildIoMb = Double.parseDouble(System.getenv().getOrDefault("INDEX_REBUILD_IO_MB_PER_SEC", "32"));
+        IndexingController controller = new IndexingController(indexer, rebuildIoMb);
 
         System.out.println("[IndexingApp] Iniciando JMS consumer...");
 
         // CONSUMIDOR JMS — arranca en un hilo aparte
-        IndexingEventConsumer consumer = new IndexingEventConsumer(indexer);
+        String brokerUrl = System.getenv().getOrDefault("BROKER_URL", "tcp://activemq:61616");
+        String queueName = System.getenv().getOrDefault("INGESTION_QUEUE", "document.ingested");
+        int consumers = Integer.parseInt(System.getenv().getOrDefault("INDEX_CONSUMERS", String.valueOf(workers)));
+        int batchSize = Integer.parseInt(System.getenv().getOrDefault("INDEX_CONSUMER_BATCH", "16"));
+        int prefetch = Integer.parseInt(System.getenv().getOrDefault("INDEX_CONSUMER_PREFETCH", String.valueOf(batchSize)));
+        long batchMs = Long.parseLong(System.getenv().getOrDefault("INDEX_CONSUMER_BATCH_MS", "200"));
+        IndexingEventConsumer consumer = new IndexingEventConsumer(indexer, brokerUrl, queueName,
+                consumers, prefetch, batchSize, batchMs);
         Thread consumerThread = new Thread(consumer);
         consumerThread.setDaemon(true);
         consumerThread.start();
 
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            consumer.stop();   // espera a que terminen los lotes en curso antes de cerrar el escritor
+            indexer.close();
+        }));
+
         // Servidor HTTP
         Javalin app = Javalin.create(cfg -> {
             cfg.http.defaultContentType = "application/json";
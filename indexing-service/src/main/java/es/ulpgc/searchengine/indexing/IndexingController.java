@@ -2,6 +2,7 @@ package es.ulpgc.searchengine.indexing;
 
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.validation.ValidationException;
 import com.google.gson.Gson;
 import java.util.Map;
 
@@ -9,29 +10,111 @@ public class IndexingController {
 
     private static final Gson gson = new Gson();
     private final Indexer indexer;
+    /** Límite de lectura de las reconstrucciones que no indican io_mb_per_sec; 0 sin límite */
+    private final double defaultIoMbPerSec;
 
-    public IndexingController(Indexer indexer) {
+    public IndexingController(Indexer indexer, double defaultIoMbPerSec) {
         this.indexer = indexer;
+        this.defaultIoMbPerSec = defaultIoMbPerSec;
     }
 
     public void register(Javalin app) {
         app.post("/index/rebuild", this::rebuildIndex);
+        app.get("/index/jobs", ctx -> ctx.result(gson.toJson(indexer.jobs())));
+        app.get("/index/jobs/{id}", this::jobStatus);
+        app.post("/index/jobs/{id}/cancel", this::cancelJob);
+        app.post("/index/update/{id}", this::updateBook);
+        app.get("/index/tickets/{ticket}", this::ticketStatus);
         app.get("/index/status", this::status);
         app.get("/health", ctx -> ctx.status(200).result("OK"));
     }
 
+    /**
+     * Starts a background rebuild and answers 202 with its job id, or 409 while another one is
+     * queued or running. Optional limits: {@code threads} (books tokenized at once, INDEX_WORKERS
+     * by default) and {@code io_mb_per_sec} (datalake read rate, INDEX_REBUILD_IO_MB_PER_SEC by
+     * default so live indexing keeps its share of the writer; 0 for no limit).
+     */
     private void rebuildIndex(Context ctx) {
         try {
-            int count = indexer.rebuildAll();
-            ctx.result(gson.toJson(Map.of(
-                    "books_processed", count,
-                    "status", "rebuild_complete"
+            boolean force = Boolean.parseBoolean(ctx.queryParam("force"));
+            int threads = ctx.queryParamAsClass("threads", Integer.class).getOrDefault(0);
+            double ioMbPerSec = ctx.queryParamAsClass("io_mb_per_sec", Double.class).getOrDefault(defaultIoMbPerSec);
+            RebuildJob job = indexer.submitRebuild(force, threads, (long) (ioMbPerSec * 1024 * 1024));
+            ctx.status(202).result(gson.toJson(job.snapshot()));
+        } catch (ValidationException e) {
+            ctx.status(400).result(gson.toJson(Map.of(
+                    "error", "invalid_request",
+                    "message", "Invalid " + String.join(", ", e.getErrors().keySet())
             )));
+        } catch (IllegalStateException e) {
+            ctx.status(409).result(gson.toJson(Map.of(
+                    "error", "rebuild_in_progress",
+                    "message", e.getMessage()
+            )));
+        } catch (Exception e) {
+            ctx.status(500).result(gson.toJson(Map.of("error", e.getMessage())));
+        }
+    }
+
+    /**
+     * Indexes one book. By default waits until it is written and answers with the time spent in
+     * each stage; with {@code wait=false} answers 202 at once with a ticket for /index/tickets.
+     */
+    private void updateBook(Context ctx) {
+        try {
+            int bookId = Integer.parseInt(ctx.pathParam("id"));
+            boolean wait = !"false".equalsIgnoreCase(ctx.queryParam("wait"));
+
+            if (!wait) {
+                IndexUpdate update = indexer.submitUpdate(bookId);
+                ctx.status(202).result(gson.toJson(update.snapshot()));
+                return;
+            }
+
+            IndexUpdate update = indexer.update(bookId);
+            IndexUpdate.State state = update.done.join();
+            switch (state) {
+                case NOT_FOUND -> ctx.status(404);
+                case FAILED -> ctx.status(500);
+                default -> ctx.status(200);
+            }
+            ctx.result(gson.toJson(update.snapshot()));
+        } catch (NumberFormatException e) {
+            ctx.status(400).result(gson.toJson(Map.of("error", "Invalid book id")));
         } catch (Exception e) {
             ctx.status(500).result(gson.toJson(Map.of("error", e.getMessage())));
         }
     }
 
+    private void ticketStatus(Context ctx) {
+        IndexUpdate update = indexer.updateStatus(ctx.pathParam("ticket"));
+        if (update == null) {
+            ctx.status(404).result(gson.toJson(Map.of("error", "Unknown ticket")));
+            return;
+        }
+        ctx.result(gson.toJson(update.snapshot()));
+    }
+
+    private void jobStatus(Context ctx) {
+        RebuildJob job = indexer.job(ctx.pathParam("id"));
+        if (job == null) {
+            ctx.status(404).result(gson.toJson(Map.of("error", "Unknown job")));
+            return;
+        }
+        ctx.result(gson.toJson(job.snapshot()));
+    }
+
+    private void cancelJob(Context ctx) {
+        RebuildJob job = indexer.job(ctx.pathParam("id"));
+        if (job == null) {
+            ctx.status(404).result(gson.toJson(Map.of("error", "Unknown job")));
+            return;
+        }
+        if (!job.cancel()) ctx.status(409);
+        ctx.result(gson.toJson(job.snapshot()));
+    }
+
     private void status(Context ctx) {
         try {
             Map<String, Object> info = indexer.getStatus();
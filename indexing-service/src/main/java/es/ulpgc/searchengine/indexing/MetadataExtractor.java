@@ -1,10 +1,19 @@
 package es.ulpgc.searchengine.indexing;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.Locale;
 import java.util.regex.*;
-import java.util.*;
 
+/**
+ * Title, author, language and year of a book from its Gutenberg header. The header is read once,
+ * line by line, up to the {@code *** START OF} marker, with every pattern compiled once per JVM.
+ *
+ * <p>Each field has patterns in order of preference and only the first match of each pattern in
+ * the header counts: if it is not a valid value the next pattern is tried, not the next match.
+ */
 public class MetadataExtractor {
     public static class Meta {
         public String title;
@@ -20,127 +29,143 @@ public class MetadataExtractor {
         }
     }
 
+    private static final int FLAGS = Pattern.CASE_INSENSITIVE;
+
+    // Los patrones de "(.+?)\n" / "^(.+?)\n" se resuelven aparte: exigen que no sea la última línea
+    private static final Pattern[] TITLE = compile(
+            "Title: (.+)", "Title\\s*: (.+)", "The Project Gutenberg eBook of (.+)", "\"(.+)\"");
+    private static final Pattern[] AUTHOR = compile(
+            "Author: (.+)", "Author\\s*: (.+)", "Written by (.+)");
+    private static final Pattern BY = Pattern.compile("by (.+)", FLAGS);
+    private static final Pattern[] LANGUAGE = compile(
+            "Language: (.+)", "Language\\s*: (.+)", "Language:.*?([a-zA-Z]{2,})");
+    private static final Pattern YEAR = Pattern.compile("\\b(1[0-9]{3}|20[0-2][0-9])\\b");
+
+    private static final int MAX_YEAR = 2024;
+
     public static Meta extract(Path headerFile) throws IOException {
-        List<String> lines = Files.readAllLines(headerFile);
-        String fullText = String.join("\n", lines);
-        System.out.println("Analyzing header for metadata extraction...");
-        System.out.println("First 10 lines:");
-        for (int i = 0; i < Math.min(10, lines.size()); i++) {
-            System.out.println("  " + i + ": " + lines.get(i));
+        try (BufferedReader reader = Files.newBufferedReader(headerFile, StandardCharsets.UTF_8)) {
+            return extract(reader);
         }
+    }
 
-        String title = extractTitle(fullText, lines);
-        String author = extractAuthor(fullText, lines);
-        String language = extractLanguage(fullText);
-        int year = extractYear(fullText);
-        System.out.println("Extracted metadata:");
-        System.out.println("  Title: " + title);
-        System.out.println("  Author: " + author);
-        System.out.println("  Language: " + language);
-        System.out.println("  Year: " + year);
-
-        return new Meta(title, author, language, year);
+    public static Meta extract(BufferedReader reader) throws IOException {
+        Scan scan = new Scan();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            scan.line(line);
+            if (isStartMarker(line)) break;
+        }
+        return new Meta(scan.title(), scan.author(), scan.language(), scan.year);
     }
 
-    private static String extractTitle(String fullText, List<String> lines) {
-        String[][] patterns = {
-                {"Title: (.+)", "1"},
-                {"Title\\s*: (.+)", "1"},
-                {"The Project Gutenberg eBook of (.+)", "1"},
-                {"\"(.+)\"", "1"},
-                {"^(.+?)\\n", "1"}
-        };
-
-        for (String[] pattern : patterns) {
-            try {
-                Matcher m = Pattern.compile(pattern[0], Pattern.MULTILINE | Pattern.CASE_INSENSITIVE).matcher(fullText);
-                if (m.find()) {
-                    String title = m.group(Integer.parseInt(pattern[1])).trim();
-                    if (isValidTitle(title)) {
-                        return cleanText(title);
+    /** First matches of every pattern, collected in one pass over the header lines. */
+    private static final class Scan {
+        final Matcher[] title = matchers(TITLE);
+        final Matcher[] author = matchers(AUTHOR);
+        final Matcher[] language = matchers(LANGUAGE);
+        final Matcher by = BY.matcher("");
+        final Matcher yearMatcher = YEAR.matcher("");
+
+        final String[] titleMatch = new String[TITLE.length];
+        final String[] authorMatch = new String[AUTHOR.length];
+        final String[] languageMatch = new String[LANGUAGE.length];
+        String byMatch;
+        int byLine = -1;
+        String firstLine;
+        int firstLineIndex = -1;
+        String fallbackTitle;
+        int year = -1;
+        int lines;
+
+        void line(String line) {
+            // Cada patrón exige un literal: se comprueba antes de lanzar la expresión regular
+            String lower = line.toLowerCase(Locale.ROOT);
+            if (lower.contains("title")) firstMatches(title, titleMatch, line, 0, 2);
+            if (lower.contains("the project gutenberg ebook of")) firstMatches(title, titleMatch, line, 2, 3);
+            if (line.indexOf('"') >= 0) firstMatches(title, titleMatch, line, 3, 4);
+            if (lower.contains("author")) firstMatches(author, authorMatch, line, 0, 2);
+            if (lower.contains("written by")) firstMatches(author, authorMatch, line, 2, 3);
+            if (lower.contains("language")) firstMatches(language, languageMatch, line, 0, 3);
+
+            if (byMatch == null && lower.contains("by ") && by.reset(line).find()) {
+                byMatch = by.group(1);
+                byLine = lines;
+            }
+            if (firstLine == null && !line.isEmpty()) {
+                firstLine = line;
+                firstLineIndex = lines;
+            }
+            if (fallbackTitle == null && isFallbackTitle(line.trim())) {
+                fallbackTitle = line.trim();
+            }
+            if (year < 0 && hasDigit(line)) {
+                yearMatcher.reset(line);
+                while (yearMatcher.find()) {
+                    int y = Integer.parseInt(yearMatcher.group(1));
+                    if (y <= MAX_YEAR) {
+                        year = y;
+                        break;
                     }
                 }
-            } catch (Exception e) {
             }
+            lines++;
         }
 
-        for (String line : lines) {
-            String trimmed = line.trim();
-            if (!trimmed.isEmpty() &&
-                    !trimmed.startsWith("Author:") &&
-                    !trimmed.startsWith("Language:") &&
-                    !trimmed.startsWith("***") &&
-                    trimmed.length() > 5 &&
-                    trimmed.length() < 200) {
-                return cleanText(trimmed);
+        String title() {
+            for (String t : titleMatch) {
+                if (t != null && isValidTitle(t.trim())) return cleanText(t.trim());
+            }
+            if (firstLine != null && firstLineIndex < lines - 1 && isValidTitle(firstLine.trim())) {
+                return cleanText(firstLine.trim());
             }
+            return fallbackTitle != null ? cleanText(fallbackTitle) : "Unknown";
         }
-        return "Unknown";
-    }
 
-    private static String extractAuthor(String fullText, List<String> lines) {
-        String[][] patterns = {
-                {"Author: (.+)", "1"},
-                {"Author\\s*: (.+)", "1"},
-                {"by (.+?)\\n", "1"},
-                {"Written by (.+)", "1"},
-                {"by (.+?)$", "1"}
-        };
-
-        for (String[] pattern : patterns) {
-            try {
-                Matcher m = Pattern.compile(pattern[0], Pattern.MULTILINE | Pattern.CASE_INSENSITIVE).matcher(fullText);
-                if (m.find()) {
-                    String author = m.group(Integer.parseInt(pattern[1])).trim();
-                    if (isValidAuthor(author)) {
-                        return cleanText(author);
-                    }
-                }
-            } catch (Exception e) {
+        String author() {
+            String byNotLast = byLine >= 0 && byLine < lines - 1 ? byMatch : null;
+            String[] candidates = {authorMatch[0], authorMatch[1], byNotLast, authorMatch[2], byMatch};
+            for (String a : candidates) {
+                if (a != null && isValidAuthor(a.trim())) return cleanText(a.trim());
             }
+            return "Unknown";
         }
 
-        return "Unknown";
-    }
-
-    private static String extractLanguage(String fullText) {
-        String[] patterns = {
-                "Language: (.+)",
-                "Language\\s*: (.+)",
-                "Language:.*?([a-zA-Z]{2,})"
-        };
-
-        for (String pattern : patterns) {
-            try {
-                Matcher m = Pattern.compile(pattern, Pattern.MULTILINE | Pattern.CASE_INSENSITIVE).matcher(fullText);
-                if (m.find()) {
-                    String lang = m.group(1).trim();
-                    if (!lang.isEmpty() && lang.length() <= 20) {
-                        return cleanText(lang).toLowerCase();
-                    }
-                }
-            } catch (Exception e) {
+        String language() {
+            for (String l : languageMatch) {
+                if (l == null) continue;
+                String lang = l.trim();
+                if (!lang.isEmpty() && lang.length() <= 20) return cleanText(lang).toLowerCase();
             }
+            return "en";
         }
-        return "en";
     }
 
-    private static int extractYear(String fullText) {
-        Matcher m = Pattern.compile("\\b(1[0-9]{3}|20[0-2][0-9])\\b").matcher(fullText);
-        List<Integer> years = new ArrayList<>();
-        while (m.find()) {
-            try {
-                int year = Integer.parseInt(m.group(1));
-                if (year >= 1000 && year <= 2024) {
-                    years.add(year);
-                }
-            } catch (Exception ignored) {}
+    private static void firstMatches(Matcher[] matchers, String[] found, String line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (found[i] == null && matchers[i].reset(line).find()) found[i] = matchers[i].group(1);
         }
+    }
 
-        if (!years.isEmpty()) {
-            return years.get(0);
+    private static boolean hasDigit(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') return true;
         }
-        return -1;
+        return false;
+    }
+
+    private static boolean isStartMarker(String line) {
+        return line.contains("***") && line.toLowerCase(Locale.ROOT).contains("*** start of");
+    }
+
+    private static boolean isFallbackTitle(String trimmed) {
+        return !trimmed.isEmpty() &&
+                !trimmed.startsWith("Author:") &&
+                !trimmed.startsWith("Language:") &&
+                !trimmed.startsWith("***") &&
+                trimmed.length() > 5 &&
+                trimmed.length() < 200;
     }
 
     private static boolean isValidTitle(String title) {
@@ -163,10 +188,34 @@ public class MetadataExtractor {
                 author.length() < 100;
     }
 
+    /** Collapses every run of whitespace into one space and trims the result. */
     private static String cleanText(String text) {
         if (text == null) return "";
-        return text.replaceAll("[\\r\\n\\t]", " ")
-                .replaceAll("\\s+", " ")
-                .trim();
+        StringBuilder out = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+                space = true;
+            } else {
+                if (space) out.append(' ');
+                out.append(c);
+                space = false;
+            }
+        }
+        if (space) out.append(' ');
+        return out.toString().trim();
+    }
+
+    private static Pattern[] compile(String... regexes) {
+        Pattern[] patterns = new Pattern[regexes.length];
+        for (int i = 0; i < regexes.length; i++) patterns[i] = Pattern.compile(regexes[i], FLAGS);
+        return patterns;
+    }
+
+    private static Matcher[] matchers(Pattern[] patterns) {
+        Matcher[] matchers = new Matcher[patterns.length];
+        for (int i = 0; i < patterns.length; i++) matchers[i] = patterns[i].matcher("");
+        return matchers;
     }
-}
\ No newline at end of file
+}
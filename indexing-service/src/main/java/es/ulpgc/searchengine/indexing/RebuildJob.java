@@ -0,0 +1,140 @@
+package es.ulpgc.searchengine.indexing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A rebuild running (or waiting to run) in the background, with its progress and limits.
+ *
+ * <p>{@code threads} bounds the CPU it takes, since that many books are tokenized at once, and
+ * {@code ioBytesPerSec} bounds how fast the datalake is read: each book waits for its share of
+ * the budget before being opened. A cancelled job stops starting books; those already handed
+ * to the writer are still committed.
+ */
+public final class RebuildJob {
+
+    public enum State { QUEUED, RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    private static final int MAX_ERRORS = 50;
+
+    public final String id = UUID.randomUUID().toString();
+    public final boolean force;
+    public final int threads;
+    public final long ioBytesPerSec;
+
+    private volatile State state = State.QUEUED;
+    private volatile boolean cancelled;
+    private volatile int total;
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final Deque<String> errors = new ArrayDeque<>();
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long startedNanos;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    /** Instante (nanoTime) a partir del cual queda presupuesto de lectura libre */
+    private long ioNextFree;
+
+    RebuildJob(boolean force, int threads, long ioBytesPerSec) {
+        this.force = force;
+        this.threads = Math.max(1, threads);
+        this.ioBytesPerSec = Math.max(0, ioBytesPerSec);
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /** Asks the job to stop; returns false if it had already finished. */
+    public boolean cancel() {
+        if (state.compareTo(State.RUNNING) > 0) return false;
+        cancelled = true;
+        return true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void start(int total) {
+        this.total = total;
+        this.startedAt = System.currentTimeMillis();
+        this.startedNanos = System.nanoTime();
+        this.state = State.RUNNING;
+    }
+
+    void finish(State state) {
+        this.finishedAt = System.currentTimeMillis();
+        this.state = state;
+    }
+
+    void written() { written.incrementAndGet(); }
+    void unchanged() { unchanged.incrementAndGet(); }
+    void skipped() { skipped.incrementAndGet(); }
+
+    void failed(int bookId, String message) {
+        failed.incrementAndGet();
+        synchronized (errors) {
+            if (errors.size() == MAX_ERRORS) errors.removeFirst();
+            errors.addLast(bookId + ": " + message);
+        }
+    }
+
+    int succeeded() {
+        return written.get() + unchanged.get();
+    }
+
+    /** Blocks until {@code bytes} fit in the read budget; returns at once without a limit. */
+    void throttle(long bytes) throws InterruptedException {
+        if (ioBytesPerSec == 0 || bytes <= 0) return;
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, ioNextFree);
+            ioNextFree = start + bytes * TimeUnit.SECONDS.toNanos(1) / ioBytesPerSec;
+            wait = start - now;
+        }
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    public Map<String, Object> snapshot() {
+        int done = written.get() + unchanged.get() + failed.get() + skipped.get();
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("job_id", id);
+        info.put("state", state.name().toLowerCase());
+        info.put("force", force);
+        info.put("threads", threads);
+        info.put("io_bytes_per_sec", ioBytesPerSec);
+        info.put("total", total);
+        info.put("processed", done);
+        info.put("written", written.get());
+        info.put("unchanged", unchanged.get());
+        info.put("failed", failed.get());
+        info.put("skipped", skipped.get());
+        info.put("created_at", createdAt);
+        if (startedAt > 0) info.put("started_at", startedAt);
+        if (finishedAt > 0) info.put("finished_at", finishedAt);
+
+        if (state == State.RUNNING) {
+            double seconds = (System.nanoTime() - startedNanos) / 1e9;
+            double rate = seconds > 0 ? done / seconds : 0;
+            info.put("books_per_sec", Math.round(rate * 100) / 100.0);
+            if (rate > 0) info.put("eta_seconds", Math.round((total - done) / rate));
+        } else if (finishedAt > 0) {
+            double seconds = (finishedAt - startedAt) / 1000.0;
+            info.put("books_per_sec", seconds > 0 ? Math.round(done / seconds * 100) / 100.0 : done);
+        }
+        synchronized (errors) {
+            info.put("errors", new ArrayList<>(errors));
+        }
+        return info;
+    }
+}
@@ -0,0 +1,35 @@
+package es.ulpgc.searchengine.indexing.index;
+
+import java.nio.file.Path;
+
+/**
+ * A book ready to be written to the datamart: its metadata and term positions. The content is
+ * not held here; it is streamed from {@code body} when the book is written, and checked against
+ * {@code bodyChecksum} so it is the same text the positions came from.
+ */
+public final class BookIndex {
+    public final int bookId;
+    public final String title;
+    public final String author;
+    public final String language;
+    public final int year;
+    public final Path body;
+    /** Hash of the header and body the book was indexed from. */
+    public final String contentHash;
+    /** CRC32 of the body bytes that were tokenized. */
+    public final long bodyChecksum;
+    public final TermTable terms;
+
+    public BookIndex(int bookId, String title, String author, String language, int year,
+                     Path body, String contentHash, long bodyChecksum, TermTable terms) {
+        this.bookId = bookId;
+        this.title = title;
+        this.author = author;
+        this.language = language;
+        this.year = year;
+        this.body = body;
+        this.contentHash = contentHash;
+        this.bodyChecksum = bodyChecksum;
+        this.terms = terms;
+    }
+}
@@ -0,0 +1,68 @@
+package es.ulpgc.searchengine.indexing.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+/**
+ * Decodes a UTF-8 file a fixed-size chunk at a time, so a book body is never held in memory
+ * whole. Malformed bytes become U+FFFD, as with {@code new String(bytes, UTF_8)}. An optional
+ * checksum is fed the bytes as they are read, so callers can tell whether two reads of the
+ * same file saw the same content.
+ */
+public final class ChunkedTextReader implements AutoCloseable {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Checksum checksum;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+    // Cada byte decodifica como mucho un char, así que un chunk de bytes siempre cabe
+    private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+    private boolean done;
+
+    public ChunkedTextReader(Path file) throws IOException {
+        this(file, null);
+    }
+
+    /** @param checksum updated with every byte of the file read; null for none */
+    public ChunkedTextReader(Path file, Checksum checksum) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.checksum = checksum;
+    }
+
+    /** The next chunk of text, or null at the end of the file; only valid until the next call. */
+    public CharBuffer next() throws IOException {
+        chars.clear();
+        while (!done && chars.position() == 0) {
+            int from = bytes.position();
+            int read = channel.read(bytes);
+            if (checksum != null && read > 0) checksum.update(bytes.array(), from, read);
+            boolean eof = read < 0;
+            bytes.flip();
+            decoder.decode(bytes, chars, eof);
+            bytes.compact();
+            if (eof) {
+                decoder.flush(chars);
+                done = true;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining() ? chars : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,36 @@
+package es.ulpgc.searchengine.indexing.index;
+
+import java.util.Arrays;
+
+/**
+ * Positions of one term, kept as they arrive in the gap encoding of {@link PostingsCodec}, so a
+ * position costs one or two bytes instead of an int and writing them needs no second pass.
+ */
+public final class PositionList {
+
+    private byte[] gaps = new byte[4];
+    private int length;
+    private int count;
+    private int last;
+
+    /** Positions must be added in increasing order. */
+    public void add(int position) {
+        if (length + 5 > gaps.length) gaps = Arrays.copyOf(gaps, Math.max(gaps.length * 2, length + 5));
+        length = PostingsCodec.writeVInt(gaps, length, position - last);
+        last = position;
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** Number of bytes of the encoded gaps. */
+    int gapBytes() {
+        return length;
+    }
+
+    byte[] gaps() {
+        return gaps;
+    }
+}
@@ -0,0 +1,42 @@
+package es.ulpgc.searchengine.indexing.index;
+
+/**
+ * Binary layout of the positions stored in {@code postings.positions}: the number of
+ * positions followed by the gaps between consecutive positions (the first one relative to 0),
+ * each written as a variable-byte integer with 7 data bits per byte and the high bit set on
+ * every byte except the last.
+ */
+public final class PostingsCodec {
+
+    private PostingsCodec() {}
+
+    public static byte[] encode(PositionList positions) {
+        byte[] count = new byte[5];
+        int countBytes = writeVInt(count, 0, positions.size());
+        byte[] out = new byte[countBytes + positions.gapBytes()];
+        System.arraycopy(count, 0, out, 0, countBytes);
+        System.arraycopy(positions.gaps(), 0, out, countBytes, positions.gapBytes());
+        return out;
+    }
+
+    /** Number of positions in an encoded list, read without decoding the gaps. */
+    public static int count(byte[] encoded) {
+        int value = 0;
+        int shift = 0;
+        for (byte b : encoded) {
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+            shift += 7;
+        }
+        return value;
+    }
+
+    static int writeVInt(byte[] buf, int off, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[off++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[off++] = (byte) value;
+        return off;
+    }
+}
@@ -0,0 +1,101 @@
+package es.ulpgc.searchengine.indexing.index;
+
+import java.util.Arrays;
+
+/**
+ * The terms of one book with the positions of each, built while tokenizing. Terms get dense
+ * ids 0..size()-1 in order of first appearance and are found by open addressing with linear
+ * probing over the tokenizer buffer, so a term is only turned into a String the first time
+ * it appears.
+ */
+public final class TermTable {
+
+    private String[] terms = new String[64];
+    private int[] hashes = new int[64];
+    private PositionList[] positions = new PositionList[64];
+    /** Term id + 1 per slot, 0 when the slot is free; the length is a power of two. */
+    private int[] slots = new int[128];
+    private int size;
+    private int positionCount;
+
+    /** Records an occurrence of the term held in the first {@code length} chars of {@code buf}. */
+    public void add(char[] buf, int length, int position) {
+        int hash = hash(buf, length);
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+
+        int id;
+        while ((id = slots[slot] - 1) >= 0) {
+            if (hashes[id] == hash && matches(terms[id], buf, length)) {
+                positions[id].add(position);
+                positionCount++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        id = size++;
+        if (id == terms.length) grow();
+        terms[id] = new String(buf, 0, length);
+        hashes[id] = hash;
+        positions[id] = new PositionList();
+        positions[id].add(position);
+        positionCount++;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) rehash();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String term(int id) {
+        return terms[id];
+    }
+
+    public PositionList positions(int id) {
+        return positions[id];
+    }
+
+    /** Occurrences of all terms, i.e. the number of indexed words of the book. */
+    public int positionCount() {
+        return positionCount;
+    }
+
+    private void grow() {
+        int capacity = terms.length * 2;
+        terms = Arrays.copyOf(terms, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(char[] buf, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) h = 31 * h + buf[i];
+        return h;
+    }
+
+    /** Spreads the String-style hash so that similar words do not fill neighbouring slots. */
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String term, char[] buf, int length) {
+        if (term.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != buf[i]) return false;
+        }
+        return true;
+    }
+}
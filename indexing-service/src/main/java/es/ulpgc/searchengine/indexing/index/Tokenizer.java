@@ -0,0 +1,75 @@
+package es.ulpgc.searchengine.indexing.index;
+
+import java.util.Arrays;
+
+/**
+ * Single pass tokenizer for book bodies. Characters are lowercased as they are read; letters
+ * a-z plus áéíóúüñ form words and anything else separates them. Only words longer than two
+ * characters are emitted, each with its position among all words, which is what
+ * {@code toLowerCase().replaceAll("[^a-záéíóúüñ\\s]", " ").split("\\s+")} produced, including
+ * the empty first word of a text that starts with a separator.
+ *
+ * <p>Words are handed out as the first {@code length} characters of a buffer that is reused for
+ * the next word, so nothing is allocated per word. A text can be fed in chunks with
+ * {@link #feed} and {@link #finish}; a word split between two chunks is joined.
+ */
+public final class Tokenizer {
+
+    private static final int MIN_TERM_LENGTH = 3;
+
+    /** Receives each indexed word; the buffer is only valid until the call returns. */
+    public interface Sink {
+        void token(char[] buf, int length, int position);
+    }
+
+    private char[] buf = new char[32];
+    private int length;
+    private int position;
+    private boolean started;
+
+    public void tokenize(CharSequence text, Sink sink) {
+        reset();
+        feed(text, sink);
+        finish(sink);
+    }
+
+    /** Forgets any text fed so far. */
+    public void reset() {
+        length = 0;
+        position = 0;
+        started = false;
+    }
+
+    /** Tokenizes the next chunk of the text; a word at its end waits for the next chunk. */
+    public void feed(CharSequence chunk, Sink sink) {
+        int n = chunk.length();
+        if (n == 0) return;
+        if (!started) {
+            if (!isTermChar(Character.toLowerCase(chunk.charAt(0)))) position = 1;
+            started = true;
+        }
+
+        for (int i = 0; i < n; i++) {
+            char c = Character.toLowerCase(chunk.charAt(i));
+            if (isTermChar(c)) {
+                if (length == buf.length) buf = Arrays.copyOf(buf, length * 2);
+                buf[length++] = c;
+            } else if (length > 0) {
+                if (length >= MIN_TERM_LENGTH) sink.token(buf, length, position);
+                position++;
+                length = 0;
+            }
+        }
+    }
+
+    /** Emits the word the text ends with, if any, and resets for the next text. */
+    public void finish(Sink sink) {
+        if (length >= MIN_TERM_LENGTH) sink.token(buf, length, position);
+        reset();
+    }
+
+    static boolean isTermChar(char c) {
+        return (c >= 'a' && c <= 'z')
+                || c == 'á' || c == 'é' || c == 'í' || c == 'ó' || c == 'ú' || c == 'ü' || c == 'ñ';
+    }
+}
@@ -4,53 +4,187 @@ import javax.jms.*;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import es.ulpgc.searchengine.indexing.Indexer;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Drains the ingestion queue with {@code consumers} threads, each on its own CLIENT_ACKNOWLEDGE
+ * session. A thread receives up to {@code batchSize} messages (or whatever arrives within
+ * {@code batchMillis}), indexes them and acknowledges the batch only once its books are
+ * committed; if a commit fails the batch is recovered and the broker redelivers it. Books that
+ * cannot be indexed at all (unknown id, empty body) are acknowledged and logged so they are not
+ * redelivered forever. If one thread loses its session the connection is closed, which stops the
+ * others, and everything is reconnected after a pause.
+ *
+ * <p>Indexing blocks while the group commit writer is full, so a slow writer stops the threads
+ * from receiving and the broker keeps everything beyond each consumer's prefetch.
+ */
 public class IndexingEventConsumer implements Runnable {
 
+    private static final long IDLE_RECEIVE_MS = 1000;
+    private static final int MAX_CONNECT_RETRIES = 20;
+    private static final long RETRY_DELAY_MS = 2000;
+    private static final long STOP_TIMEOUT_MS = 30_000;
+
     private final Indexer indexer;
-    private static final String BROKER_URL = "tcp://activemq:61616";
-    private static final String QUEUE_NAME = "document.ingested";
+    private final String brokerUrl;
+    private final String queueName;
+    private final int consumers;
+    private final int prefetch;
+    private final int batchSize;
+    private final long batchMillis;
+    private volatile boolean running = true;
+    private volatile Connection connection;
+    private volatile List<Thread> threads = List.of();
 
-    public IndexingEventConsumer(Indexer indexer) {
+    public IndexingEventConsumer(Indexer indexer, String brokerUrl, String queueName,
+                                 int consumers, int prefetch, int batchSize, long batchMillis) {
         this.indexer = indexer;
+        this.brokerUrl = brokerUrl;
+        this.queueName = queueName;
+        this.consumers = Math.max(1, consumers);
+        this.prefetch = Math.max(1, prefetch);
+        this.batchSize = Math.max(1, batchSize);
+        this.batchMillis = Math.max(0, batchMillis);
     }
 
     @Override
     public void run() {
         int retries = 0;
 
-        while (retries < 20) {
+        while (running && retries < MAX_CONNECT_RETRIES) {
             try {
                 System.out.println("[IndexingConsumer] Intentando conectar a ActiveMQ...");
 
-                ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(BROKER_URL);
-                Connection connection = factory.createConnection();
+                ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerUrl);
+                factory.getPrefetchPolicy().setQueuePrefetch(prefetch);
+                connection = factory.createConnection();
                 connection.start();
 
-                Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-                Destination queue = session.createQueue(QUEUE_NAME);
+                List<Thread> started = new ArrayList<>();
+                for (int i = 0; i < consumers; i++) {
+                    Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+                    MessageConsumer consumer = session.createConsumer(session.createQueue(queueName));
+                    Thread thread = new Thread(() -> consume(session, consumer), "jms-consumer-" + i);
+                    thread.setDaemon(true);
+                    started.add(thread);
+                }
+                threads = started;
+                started.forEach(Thread::start);
 
-                MessageConsumer consumer = session.createConsumer(queue);
+                System.out.printf("[IndexingConsumer] Conectado: %d consumidores, prefetch %d, lotes de %d.%n",
+                        consumers, prefetch, batchSize);
+                retries = 0;
+                for (Thread thread : started) thread.join();
+                closeConnection();
+                if (running) {   // algún consumidor perdió su sesión: se reconecta todo
+                    System.out.println("[IndexingConsumer] Reconectando en " + RETRY_DELAY_MS / 1000 + "s...");
+                    Thread.sleep(RETRY_DELAY_MS);
+                }
 
-                consumer.setMessageListener(msg -> {
-                    try {
-                        int id = Integer.parseInt(((TextMessage) msg).getText());
-                        System.out.println("[IndexingConsumer] Recibido ID = " + id);
-                        indexer.indexDocument(id);
-                    } catch (Exception e) {
-                        System.err.println("[IndexingConsumer] Error procesando mensaje: " + e.getMessage());
-                    }
-                });
-
-                System.out.println("[IndexingConsumer] Conectado y escuchando mensajes.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
                 return;
-
             } catch (Exception e) {
+                closeConnection();
                 retries++;
-                System.out.println("[IndexingConsumer] Fallo, reintentando en 2s... (" + retries + "/20)");
-                try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+                System.out.println("[IndexingConsumer] Fallo, reintentando en 2s... (" + retries + "/" + MAX_CONNECT_RETRIES + ")");
+                try { Thread.sleep(RETRY_DELAY_MS); } catch (InterruptedException ignored) {}
+            }
+        }
+
+        if (running) System.err.println("[IndexingConsumer] ERROR: No se pudo conectar al broker.");
+    }
+
+    /**
+     * Deja de recibir mensajes y espera, como mucho {@value #STOP_TIMEOUT_MS} ms, a que cada hilo
+     * termine su lote; lo que quede sin confirmar lo reentrega el broker.
+     */
+    public void stop() {
+        running = false;
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        try {
+            for (Thread thread : threads) {
+                long left = deadline - System.currentTimeMillis();
+                if (left > 0) thread.join(left);
+                if (thread.isAlive()) System.err.println("[IndexingConsumer] " + thread.getName() + " no terminó su lote a tiempo");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeConnection();
+    }
+
+    private void consume(Session session, MessageConsumer consumer) {
+        List<CompletableFuture<Boolean>> pending = new ArrayList<>(batchSize);
+        try {
+            while (running) {
+                Message last = consumer.receive(IDLE_RECEIVE_MS);
+                if (last == null) continue;
+
+                pending.add(index(last));
+                long deadline = System.currentTimeMillis() + batchMillis;
+                while (pending.size() < batchSize) {
+                    long left = deadline - System.currentTimeMillis();
+                    Message next = left > 0 ? consumer.receive(left) : consumer.receiveNoWait();
+                    if (next == null) break;
+                    pending.add(index(next));
+                    last = next;
+                }
+
+                if (allCommitted(pending)) {
+                    last.acknowledge();   // CLIENT_ACKNOWLEDGE confirma todo lo recibido en la sesión
+                } else {
+                    System.err.println("[IndexingConsumer] Commit fallido, se reentregan " + pending.size() + " mensajes");
+                    session.recover();
+                }
+                pending.clear();
+            }
+        } catch (JMSException e) {
+            if (running) {
+                // cerrar la conexión detiene también a los demás hilos; run() vuelve a conectar
+                System.err.println("[IndexingConsumer] Error en el consumidor: " + e.getMessage());
+                closeConnection();
             }
         }
+    }
+
+    /** Only a message that is not a book id counts as done without indexing anything. */
+    private CompletableFuture<Boolean> index(Message msg) {
+        int id;
+        try {
+            id = Integer.parseInt(((TextMessage) msg).getText().trim());
+        } catch (JMSException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (RuntimeException e) {
+            System.err.println("[IndexingConsumer] Mensaje no válido: " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+        return indexer.indexDocument(id);
+    }
 
-        System.err.println("[IndexingConsumer] ERROR: No se pudo conectar al broker.");
+    /** Waits for the batch; false if any book failed to be written and should be redelivered. */
+    private static boolean allCommitted(List<CompletableFuture<Boolean>> pending) {
+        boolean committed = true;
+        for (CompletableFuture<Boolean> book : pending) {
+            try {
+                book.join();
+            } catch (CompletionException e) {
+                committed = false;
+            }
+        }
+        return committed;
+    }
+
+    private void closeConnection() {
+        Connection c = connection;
+        connection = null;
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (JMSException ignored) {
+        }
     }
-}
\ No newline at end of file
+}
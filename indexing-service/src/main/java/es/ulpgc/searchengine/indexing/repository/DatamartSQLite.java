@@ -1,34 +1,37 @@
 package es.ulpgc.searchengine.indexing.repository;
 
+import es.ulpgc.searchengine.indexing.index.BookIndex;
+import es.ulpgc.searchengine.indexing.index.ChunkedTextReader;
+import es.ulpgc.searchengine.indexing.index.PositionList;
+import es.ulpgc.searchengine.indexing.index.PostingsCodec;
+import es.ulpgc.searchengine.indexing.index.TermTable;
+import es.ulpgc.searchengine.indexing.repository.SqliteConnectionPool.PooledConnection;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
 import java.sql.*;
 import java.util.*;
+import java.util.zip.CRC32;
 
-public class DatamartSQLite {
+public class DatamartSQLite implements IndexStore {
 
-    private final String dbPath;
+    /** Una única conexión de escritura: SQLite solo admite un escritor a la vez */
+    private final SqliteConnectionPool writer;
 
-    public DatamartSQLite(String dbPath) {
-        this.dbPath = dbPath;
-        enableBusyTimeout();
-    }
-
-    /** Activa el busy_timeout para evitar SQLITE_BUSY */
-    private void enableBusyTimeout() {
-        try (Connection conn = connect();
-             Statement st = conn.createStatement()) {
-
-            st.execute("PRAGMA busy_timeout = 5000;"); // 5 segundos
-            st.execute("PRAGMA journal_mode = WAL;");  // mejor para concurrencia
+    /** Contadores que mantiene el escritor en index_meta, en el orden en que se muestran */
+    private static final List<String> STAT_KEYS =
+            List.of("books", "terms", "postings", "tokens", "postings_bytes", "content_chars", "generation");
+    private static final int STATS_VERSION = 2;
+    /** Copia de index_meta tras el último commit, para leer las estadísticas sin tocar la base */
+    private volatile Map<String, Long> stats = Map.of();
 
-            System.out.println("[Datamart] SQLite configurado con busy_timeout=5000ms y WAL");
-        } catch (SQLException e) {
-            System.err.println("[Datamart] Error configurando busy_timeout: " + e.getMessage());
-        }
+    public DatamartSQLite(String dbPath) {
+        this.writer = new SqliteConnectionPool(dbPath, 1, false);
     }
 
     public void initSchema() {
-        try (Connection conn = connect();
-             Statement st = conn.createStatement()) {
+        try (PooledConnection pooled = writer.acquire();
+             Statement st = pooled.connection().createStatement()) {
 
             st.execute("""
                 CREATE TABLE IF NOT EXISTS books (
@@ -37,140 +40,559 @@ public class DatamartSQLite {
                     author TEXT,
                     language TEXT,
                     year INTEGER,
-                    content TEXT
+                    content TEXT,
+                    word_count INTEGER DEFAULT 0,
+                    generation INTEGER DEFAULT 0,
+                    content_hash TEXT
                 );
             """);
+            addColumnIfMissing(pooled.connection(), "books", "word_count", "INTEGER DEFAULT 0");
+            addColumnIfMissing(pooled.connection(), "books", "generation", "INTEGER DEFAULT 0");
+            addColumnIfMissing(pooled.connection(), "books", "content_hash", "TEXT");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_books_generation ON books(generation)");
+
+            // Diccionario: cada término se guarda una vez, con su df (libros) y cf (apariciones)
+            st.execute("""
+                CREATE TABLE IF NOT EXISTS terms (
+                    term_id INTEGER PRIMARY KEY,
+                    term TEXT NOT NULL UNIQUE,
+                    df INTEGER NOT NULL DEFAULT 0,
+                    cf INTEGER NOT NULL DEFAULT 0
+                );
+            """);
+            st.execute("""
+                CREATE TABLE IF NOT EXISTS postings (
+                    term_id INTEGER,
+                    book_id INTEGER,
+                    positions BLOB,
+                    PRIMARY KEY(term_id, book_id)
+                ) WITHOUT ROWID;
+            """);
+            st.execute("CREATE INDEX IF NOT EXISTS idx_postings_book ON postings(book_id)");
 
+            // Contenido por bloques; books.content solo lo tienen los libros escritos antes de existir esta tabla
             st.execute("""
-                CREATE TABLE IF NOT EXISTS inverted_index (
-                    term TEXT,
+                CREATE TABLE IF NOT EXISTS book_content (
                     book_id INTEGER,
-                    positions TEXT,
-                    PRIMARY KEY(term, book_id)
+                    chunk INTEGER,
+                    text TEXT,
+                    PRIMARY KEY(book_id, chunk)
+                ) WITHOUT ROWID;
+            """);
+
+            // Contador de generación: lo incrementa cada escritura para que búsqueda refresque sus cachés
+            st.execute("""
+                CREATE TABLE IF NOT EXISTS index_meta (
+                    key TEXT PRIMARY KEY,
+                    value INTEGER
                 );
             """);
 
-            System.out.println("[Datamart] Schema initialized");
+            migrateInvertedIndex(pooled);
+            initStats(pooled);
+            System.out.printf("[Datamart] Schema initialized (journal_mode=%s, busy_timeout=%sms)%n",
+                    pragma(st, "journal_mode"), pragma(st, "busy_timeout"));
 
         } catch (SQLException e) {
             System.err.println("[Datamart] Schema error: " + e.getMessage());
         }
     }
 
-    public void insertOrUpdateBook(int bookId, String title, String author,
-                                   String language, int year, String content) {
+    /**
+     * Moves the postings of the old {@code inverted_index} table, which repeated the term in every
+     * row, into {@code terms} and {@code postings}, re-encoding positions still stored as text.
+     * The old table is dropped in the same transaction and the file vacuumed afterwards so it
+     * actually shrinks.
+     */
+    private void migrateInvertedIndex(PooledConnection conn) throws SQLException {
+        Connection c = conn.connection();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'inverted_index'")) {
+            if (!rs.next()) return;
+        }
 
-        String sql = """
-            INSERT INTO books (book_id, title, author, language, year, content)
-            VALUES (?, ?, ?, ?, ?, ?)
-            ON CONFLICT(book_id) DO UPDATE SET
-                title = excluded.title,
-                author = excluded.author,
-                language = excluded.language,
-                year = excluded.year,
-                content = excluded.content;
-        """;
+        System.out.println("[Datamart] Migrating inverted_index to terms + postings...");
+        long rows = 0;
+        c.setAutoCommit(false);
+        try (Statement st = c.createStatement();
+             PreparedStatement insertTerm = c.prepareStatement(
+                     "INSERT INTO terms (term) VALUES (?) ON CONFLICT(term) DO UPDATE SET term = excluded.term RETURNING term_id");
+             PreparedStatement countTerm = c.prepareStatement("UPDATE terms SET df = df + ?, cf = cf + ? WHERE term_id = ?");
+             PreparedStatement insertPosting = c.prepareStatement(
+                     "INSERT OR REPLACE INTO postings (term_id, book_id, positions) VALUES (?, ?, ?)");
+             ResultSet rs = st.executeQuery("SELECT term, book_id, positions FROM inverted_index ORDER BY term")) {
+
+            String current = null;
+            long termId = 0, df = 0, cf = 0;
+            while (rs.next()) {
+                String term = rs.getString(1);
+                if (!term.equals(current)) {
+                    if (current != null) addCounts(countTerm, termId, df, cf);
+                    current = term;
+                    df = 0;
+                    cf = 0;
+                    insertTerm.setString(1, term);
+                    try (ResultSet id = insertTerm.executeQuery()) {
+                        id.next();
+                        termId = id.getLong(1);
+                    }
+                }
+                Object stored = rs.getObject(3);
+                byte[] positions = stored instanceof byte[] encoded ? encoded : encodeLegacy((String) stored);
+                insertPosting.setLong(1, termId);
+                insertPosting.setInt(2, rs.getInt(2));
+                insertPosting.setBytes(3, positions);
+                insertPosting.executeUpdate();
+                df++;
+                cf += PostingsCodec.count(positions);
+                rows++;
+            }
+            if (current != null) addCounts(countTerm, termId, df, cf);
+
+            st.execute("DROP TABLE inverted_index");
+            st.execute("DELETE FROM index_meta WHERE key = 'stats_version'"); // se recuentan con las tablas nuevas
+            c.commit();
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
 
-        try (Connection conn = connect();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Statement st = c.createStatement()) {
+            st.execute("VACUUM");
+            st.execute("PRAGMA wal_checkpoint(TRUNCATE)"); // VACUUM en WAL deja la copia entera en el -wal
+        }
+        System.out.println("[Datamart] Migrated " + rows + " postings");
+    }
 
-            ps.setInt(1, bookId);
-            ps.setString(2, title);
-            ps.setString(3, author);
-            ps.setString(4, language);
-            ps.setInt(5, year);
-            ps.setString(6, content);
+    private static void addCounts(PreparedStatement update, long termId, long df, long cf) throws SQLException {
+        update.setLong(1, df);
+        update.setLong(2, cf);
+        update.setLong(3, termId);
+        update.executeUpdate();
+    }
 
-            ps.executeUpdate();
+    /** Positions stored as "[1, 5, 9]" by indexers older than the binary encoding. */
+    private static byte[] encodeLegacy(String text) {
+        PositionList positions = new PositionList();
+        int value = -1;
+        for (int i = 0; text != null && i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (ch - '0');
+            } else if (value >= 0) {
+                positions.add(value);
+                value = -1;
+            }
+        }
+        if (value >= 0) positions.add(value);
+        return PostingsCodec.encode(positions);
+    }
 
-        } catch (SQLException e) {
-            System.err.println("[Datamart] Error inserting/updating book: " + e.getMessage());
+    /**
+     * Counts everything once for databases written before the counters existed; from then on
+     * {@link #writeBooks} keeps them up to date in the same transaction as the books.
+     */
+    private void initStats(PooledConnection conn) throws SQLException {
+        Map<String, Long> current = readStats(conn);
+        if (current.getOrDefault("stats_version", 0L) < STATS_VERSION) {
+            System.out.println("[Datamart] Counting index statistics...");
+            Connection c = conn.connection();
+            c.setAutoCommit(false);
+            try (Statement st = c.createStatement()) {
+                Map<String, Long> counted = new HashMap<>();
+                counted.put("books", scalar(st, "SELECT COUNT(*) FROM books"));
+                counted.put("terms", scalar(st, "SELECT COUNT(*) FROM terms WHERE df > 0"));
+                counted.put("postings", scalar(st, "SELECT COUNT(*) FROM postings"));
+                counted.put("tokens", scalar(st, "SELECT COALESCE(SUM(word_count), 0) FROM books"));
+                counted.put("postings_bytes", scalar(st, "SELECT COALESCE(SUM(length(positions)), 0) FROM postings"));
+                counted.put("content_chars", scalar(st, "SELECT COALESCE(SUM(length(content)), 0) FROM books")
+                        + scalar(st, "SELECT COALESCE(SUM(length(text)), 0) FROM book_content"));
+                counted.put("stats_version", (long) STATS_VERSION);
+
+                PreparedStatement ps = conn.prepare("INSERT OR REPLACE INTO index_meta (key, value) VALUES (?, ?)");
+                for (Map.Entry<String, Long> e : counted.entrySet()) {
+                    ps.setString(1, e.getKey());
+                    ps.setLong(2, e.getValue());
+                    ps.executeUpdate();
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            current = readStats(conn);
         }
+        stats = current;
     }
 
-    public void deleteIndexForBook(int bookId) {
-        try (Connection conn = connect();
-             PreparedStatement ps = conn.prepareStatement(
-                     "DELETE FROM inverted_index WHERE book_id = ?")) {
+    private static String pragma(Statement st, String name) throws SQLException {
+        try (ResultSet rs = st.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getString(1) : "?";
+        }
+    }
 
-            ps.setInt(1, bookId);
-            ps.executeUpdate();
+    private static long scalar(Statement st, String sql) throws SQLException {
+        try (ResultSet rs = st.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private Map<String, Long> readStats(PooledConnection conn) throws SQLException {
+        Map<String, Long> values = new HashMap<>();
+        try (ResultSet rs = conn.prepare("SELECT key, value FROM index_meta").executeQuery()) {
+            while (rs.next()) values.put(rs.getString(1), rs.getLong(2));
+        }
+        return values;
+    }
+
+    /** Adds a column to tables created by older versions of the schema. */
+    private void addColumnIfMissing(Connection conn, String table, String column, String type) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (rs.getString("name").equalsIgnoreCase(column)) return;
+            }
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+    }
 
+    /** Content hash of every book indexed since hashes were stored. */
+    @Override
+    public Map<Integer, String> contentHashes() {
+        Map<Integer, String> hashes = new HashMap<>();
+        try (PooledConnection conn = writer.acquire();
+             ResultSet rs = conn.prepare("SELECT book_id, content_hash FROM books WHERE content_hash IS NOT NULL")
+                     .executeQuery()) {
+            while (rs.next()) hashes.put(rs.getInt(1), rs.getString(2));
         } catch (SQLException e) {
-            System.err.println("[Datamart] Error deleting index: " + e.getMessage());
+            System.err.println("[Datamart] Error loading content hashes: " + e.getMessage());
+        }
+        return hashes;
+    }
+
+    /**
+     * Writes the books in one transaction: their postings replace the previous ones and their rows
+     * are stamped with a new index generation, so readers see all of them or none. Returns false
+     * when the transaction was rolled back.
+     */
+    @Override
+    public boolean writeBooks(List<BookIndex> books) {
+        return writeBooks(books, true);
+    }
+
+    /**
+     * Writes the rows and content of the books but not their postings, for when the postings are
+     * kept in segment files instead.
+     */
+    public boolean writeDocuments(List<BookIndex> books) {
+        return writeBooks(books, false);
+    }
+
+    private boolean writeBooks(List<BookIndex> books, boolean postings) {
+        if (books.isEmpty()) return true;
+
+        try (PooledConnection conn = writer.acquire()) {
+            conn.connection().setAutoCommit(false);
+            long generation = nextGeneration(conn);
+            Map<String, Long> delta = new HashMap<>();
+            for (BookIndex book : books) {
+                removePrevious(conn, book, delta);
+                if (postings) replacePostings(conn, book.bookId, book.terms, delta);
+                add(delta, "content_chars", writeContent(conn, book));
+                insertOrUpdateBook(conn, book, generation);
+            }
+            applyStats(conn, delta);
+            conn.connection().commit();
+            stats = readStats(conn);
+            return true;
+
+        } catch (SQLException | IOException e) {
+            System.err.println("[Datamart] Error writing " + books.size() + " books: " + e.getMessage());
+            return false;
         }
     }
 
-    public void insertIndex(int bookId, Map<String, List<Integer>> index) {
+    /**
+     * Increments and returns the index generation. Books written afterwards are stamped with it,
+     * so readers can find what changed since the last generation they saw. Must run inside the
+     * transaction that writes those books: bumped before it, a reader could record the new
+     * generation while the rows are still invisible and never pick them up.
+     */
+    private long nextGeneration(PooledConnection conn) throws SQLException {
         String sql = """
-            INSERT INTO inverted_index (term, book_id, positions)
-            VALUES (?, ?, ?)
-            ON CONFLICT(term, book_id) DO UPDATE SET
-                positions = excluded.positions;
+            INSERT INTO index_meta (key, value) VALUES ('generation', 1)
+            ON CONFLICT(key) DO UPDATE SET value = value + 1
+            RETURNING value;
         """;
 
-        try (Connection conn = connect();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            for (var entry : index.entrySet()) {
-                String term = entry.getKey();
-                List<Integer> positions = entry.getValue();
-                String posCsv = positions.toString();
+        try (ResultSet rs = conn.prepare(sql).executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
 
-                ps.setString(1, term);
-                ps.setInt(2, bookId);
-                ps.setString(3, posCsv);
-                ps.addBatch();
+    /** Subtracts what the previous version of the book counted, if there was one. */
+    private void removePrevious(PooledConnection conn, BookIndex book, Map<String, Long> delta) throws SQLException {
+        PreparedStatement ps = conn.prepare("""
+            SELECT word_count, COALESCE(length(content), 0)
+                 + (SELECT COALESCE(SUM(length(text)), 0) FROM book_content WHERE book_id = books.book_id)
+            FROM books WHERE book_id = ?
+        """);
+        ps.setInt(1, book.bookId);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                add(delta, "tokens", -rs.getLong(1));
+                add(delta, "content_chars", -rs.getLong(2));
+            } else {
+                add(delta, "books", 1);
             }
+        }
+        add(delta, "tokens", book.terms.positionCount());
+    }
+
+    private void applyStats(PooledConnection conn, Map<String, Long> delta) throws SQLException {
+        PreparedStatement ps = conn.prepare("""
+            INSERT INTO index_meta (key, value) VALUES (?, ?)
+            ON CONFLICT(key) DO UPDATE SET value = value + excluded.value
+        """);
+        for (Map.Entry<String, Long> e : delta.entrySet()) {
+            if (e.getValue() == 0) continue;
+            ps.setString(1, e.getKey());
+            ps.setLong(2, e.getValue());
+            ps.executeUpdate();
+        }
+    }
 
-            ps.executeBatch();
+    private static void add(Map<String, Long> delta, String key, long value) {
+        delta.merge(key, value, Long::sum);
+    }
 
-        } catch (SQLException e) {
-            System.err.println("[Datamart] Error inserting index: " + e.getMessage());
+    private void insertOrUpdateBook(PooledConnection conn, BookIndex book, long generation) throws SQLException {
+        String sql = """
+            INSERT INTO books (book_id, title, author, language, year, word_count, content, generation, content_hash)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT(book_id) DO UPDATE SET
+                title = excluded.title,
+                author = excluded.author,
+                language = excluded.language,
+                year = excluded.year,
+                word_count = excluded.word_count,
+                content = excluded.content,
+                generation = excluded.generation,
+                content_hash = excluded.content_hash;
+        """;
+
+        PreparedStatement ps = conn.prepare(sql);
+        ps.setInt(1, book.bookId);
+        ps.setString(2, book.title);
+        ps.setString(3, book.author);
+        ps.setString(4, book.language);
+        ps.setInt(5, book.year);
+        ps.setInt(6, book.terms.positionCount());
+        ps.setNull(7, Types.VARCHAR);
+        ps.setLong(8, generation);
+        ps.setString(9, book.contentHash);
+        ps.executeUpdate();
+    }
+
+    /**
+     * Replaces the book's content with the file, one {@link ChunkedTextReader} chunk per row.
+     * Returns the number of characters written. Fails, rolling the transaction back, if the file
+     * no longer holds the text the book's postings were built from.
+     */
+    private long writeContent(PooledConnection conn, BookIndex book) throws SQLException, IOException {
+        int bookId = book.bookId;
+        PreparedStatement delete = conn.prepare("DELETE FROM book_content WHERE book_id = ?");
+        delete.setInt(1, bookId);
+        delete.executeUpdate();
+
+        PreparedStatement insert = conn.prepare("INSERT INTO book_content (book_id, chunk, text) VALUES (?, ?, ?)");
+        long chars = 0;
+        CRC32 checksum = new CRC32();
+        try (ChunkedTextReader reader = new ChunkedTextReader(book.body, checksum)) {
+            CharBuffer text;
+            for (int chunk = 0; (text = reader.next()) != null; chunk++) {
+                String s = text.toString();
+                insert.setInt(1, bookId);
+                insert.setInt(2, chunk);
+                insert.setString(3, s);
+                insert.executeUpdate();
+                chars += s.codePointCount(0, s.length());
+            }
         }
+        if (checksum.getValue() != book.bodyChecksum) {
+            throw new IOException("Body of book " + bookId + " changed since it was indexed");
+        }
+        return chars;
     }
 
-    public Map<String,Object> getStats() {
-        Map<String,Object> stats = new HashMap<>();
+    /**
+     * Makes the book's postings match {@code index}, touching only the rows that differ: terms
+     * whose positions changed are rewritten, terms the book no longer has are deleted and the
+     * rest are left alone. The df and cf of the terms involved follow; a term no book has any
+     * more leaves the dictionary. Changes to the totals are added to {@code delta}.
+     */
+    private void replacePostings(PooledConnection conn, int bookId, TermTable index,
+                                 Map<String, Long> delta) throws SQLException {
+        Map<String, Stored> previous = new HashMap<>();
+        PreparedStatement select = conn.prepare("""
+            SELECT t.term, p.term_id, p.positions
+            FROM postings p JOIN terms t ON t.term_id = p.term_id
+            WHERE p.book_id = ?
+        """);
+        select.setInt(1, bookId);
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) previous.put(rs.getString(1), new Stored(rs.getLong(2), rs.getBytes(3)));
+        }
+
+        // Término nuevo para el libro: df + 1 y sus apariciones a cf, creándolo si no existía
+        PreparedStatement addTerm = conn.prepare("""
+            INSERT INTO terms (term, df, cf) VALUES (?, 1, ?)
+            ON CONFLICT(term) DO UPDATE SET df = df + 1, cf = cf + excluded.cf
+        """);
+        PreparedStatement changeTerm = conn.prepare("UPDATE terms SET cf = cf + ? WHERE term_id = ?");
+        PreparedStatement insert = conn.prepare("""
+            INSERT INTO postings (term_id, book_id, positions)
+            SELECT term_id, ?, ? FROM terms WHERE term = ?
+        """);
+        PreparedStatement upsert = conn.prepare("""
+            INSERT INTO postings (term_id, book_id, positions)
+            VALUES (?, ?, ?)
+            ON CONFLICT(term_id, book_id) DO UPDATE SET
+                positions = excluded.positions;
+        """);
+        // las sentencias se reutilizan: descarta lo que dejara un fallo anterior
+        addTerm.clearBatch();
+        changeTerm.clearBatch();
+        insert.clearBatch();
+        upsert.clearBatch();
+
+        long lastTermId = maxTermId(conn);
+        long added = 0, bytes = 0;
+        for (int id = 0; id < index.size(); id++) {
+            String term = index.term(id);
+            byte[] positions = PostingsCodec.encode(index.positions(id));
+            Stored old = previous.remove(term);
+            if (old != null && Arrays.equals(old.positions, positions)) continue;
+
+            int count = index.positions(id).size();
+            if (old == null) {
+                addTerm.setString(1, term);
+                addTerm.setLong(2, count);
+                addTerm.addBatch();
+                insert.setInt(1, bookId);
+                insert.setBytes(2, positions);
+                insert.setString(3, term);
+                insert.addBatch();
+                added++;
+                bytes += positions.length;
+            } else {
+                changeTerm.setLong(1, count - PostingsCodec.count(old.positions));
+                changeTerm.setLong(2, old.termId);
+                changeTerm.addBatch();
+                upsert.setLong(1, old.termId);
+                upsert.setInt(2, bookId);
+                upsert.setBytes(3, positions);
+                upsert.addBatch();
+                bytes += positions.length - old.positions.length;
+            }
+        }
+        addTerm.executeBatch();
+        changeTerm.executeBatch();
+        insert.executeBatch();   // después de addTerm: el id del término ya existe
+        upsert.executeBatch();
+
+        // Los términos creados reciben ids por encima del mayor que había
+        long newTerms = termsAbove(conn, lastTermId);
+
+        if (!previous.isEmpty()) {
+            PreparedStatement delete = conn.prepare("DELETE FROM postings WHERE term_id = ? AND book_id = ?");
+            PreparedStatement removeTerm = conn.prepare("UPDATE terms SET df = df - 1, cf = cf - ? WHERE term_id = ?");
+            PreparedStatement dropTerm = conn.prepare("DELETE FROM terms WHERE term_id = ? AND df = 0");
+            delete.clearBatch();
+            removeTerm.clearBatch();
+            dropTerm.clearBatch();
+            for (Stored old : previous.values()) {
+                delete.setLong(1, old.termId);
+                delete.setInt(2, bookId);
+                delete.addBatch();
+                removeTerm.setLong(1, PostingsCodec.count(old.positions));
+                removeTerm.setLong(2, old.termId);
+                removeTerm.addBatch();
+                dropTerm.setLong(1, old.termId);
+                dropTerm.addBatch();
+                bytes -= old.positions.length;
+            }
+            delete.executeBatch();
+            removeTerm.executeBatch();
+            for (int dropped : dropTerm.executeBatch()) newTerms -= dropped;
+        }
+        add(delta, "postings", added - previous.size());
+        add(delta, "terms", newTerms);
+        add(delta, "postings_bytes", bytes);
+    }
 
-        try (Connection conn = connect();
-             Statement st = conn.createStatement()) {
+    private long maxTermId(PooledConnection conn) throws SQLException {
+        try (ResultSet rs = conn.prepare("SELECT COALESCE(MAX(term_id), 0) FROM terms").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
 
-            ResultSet rs1 = st.executeQuery("SELECT COUNT(*) AS total FROM books");
-            stats.put("books", rs1.getInt("total"));
+    private long termsAbove(PooledConnection conn, long termId) throws SQLException {
+        PreparedStatement ps = conn.prepare("SELECT COUNT(*) FROM terms WHERE term_id > ?");
+        ps.setLong(1, termId);
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
 
-            ResultSet rs2 = st.executeQuery("SELECT COUNT(*) AS terms FROM inverted_index");
-            stats.put("terms_indexed", rs2.getInt("terms"));
+    /** A posting already in the index: its term id and encoded positions. */
+    private static final class Stored {
+        final long termId;
+        final byte[] positions;
 
-        } catch (SQLException e) {
-            stats.put("error", e.getMessage());
+        Stored(long termId, byte[] positions) {
+            this.termId = termId;
+            this.positions = positions;
         }
+    }
 
-        return stats;
+    /** Counters kept by the writer, read from memory: books, terms, postings, tokens, sizes and generation. */
+    @Override
+    public Map<String,Object> getStats() {
+        Map<String, Long> current = stats;
+        Map<String,Object> out = new LinkedHashMap<>();
+        for (String key : STAT_KEYS) out.put(key, current.getOrDefault(key, 0L));
+        out.put("terms_indexed", current.getOrDefault("postings", 0L)); // nombre antiguo: contaba filas de postings
+        return out;
     }
 
     public String getBookContent(int bookId) {
-        try (Connection conn = connect();
-             PreparedStatement ps = conn.prepareStatement(
-                     "SELECT content FROM books WHERE book_id = ?")) {
-
+        try (PooledConnection conn = writer.acquire()) {
+            PreparedStatement ps = conn.prepare("SELECT content FROM books WHERE book_id = ?");
             ps.setInt(1, bookId);
 
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) return rs.getString("content");
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                if (rs.getString("content") != null) return rs.getString("content");
+            }
+
+            PreparedStatement chunks = conn.prepare("SELECT text FROM book_content WHERE book_id = ? ORDER BY chunk");
+            chunks.setInt(1, bookId);
+            StringBuilder content = new StringBuilder();
+            try (ResultSet rs = chunks.executeQuery()) {
+                while (rs.next()) content.append(rs.getString(1));
+            }
+            return content.toString();
 
         } catch (SQLException e) {
             System.err.println("[Datamart] Error loading content: " + e.getMessage());
         }
         return null;
     }
-
-    /** Conexión con busy_timeout garantizado */
-    private Connection connect() throws SQLException {
-        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
-        try (Statement st = conn.createStatement()) {
-            st.execute("PRAGMA busy_timeout = 5000;");
-        }
-        return conn;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+package es.ulpgc.searchengine.indexing.repository;
+
+import es.ulpgc.searchengine.indexing.index.BookIndex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Folds books submitted from any thread into shared commits. A batch is written once it reaches
+ * {@code maxBooks} or {@code maxDelayMillis} after its first book arrived, so commits amortize the
+ * fsync while a lone book waits at most the delay. Each book lands completely or not at all.
+ * Submitting blocks while {@code 2 * maxBooks} books are waiting to be written.
+ */
+public final class GroupCommitWriter implements AutoCloseable {
+
+    private static final long IDLE_POLL_MS = 100;
+
+    private final IndexStore repository;
+    private final int maxBooks;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+    /** Submits share it; close() takes it alone, so nothing is queued once the writer stops draining */
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private long commits;
+    private long written;
+    private long failed;
+
+    public GroupCommitWriter(IndexStore repository, int maxBooks, long maxDelayMillis) {
+        this.repository = repository;
+        this.maxBooks = Math.max(1, maxBooks);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        this.queue = new ArrayBlockingQueue<>(this.maxBooks * 2);
+        this.thread = new Thread(this::run, "index-group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Queues the book for the next commit; the future completes with whether it was written. */
+    public CompletableFuture<Boolean> submit(BookIndex book) throws InterruptedException {
+        closing.readLock().lockInterruptibly();
+        try {
+            if (closed) throw new IllegalStateException("Group commit writer is closed");
+            Pending pending = new Pending(book);
+            queue.put(pending);
+            return pending.done;
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes what is already queued and stops the writer thread. Waits for submits already
+     * queueing, which the writer thread still drains; later ones fail.
+     */
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Pending left;
+        while ((left = queue.poll()) != null) left.done.complete(false);
+    }
+
+    public synchronized Map<String,Object> stats() {
+        Map<String,Object> stats = new LinkedHashMap<>();
+        stats.put("commits", commits);
+        stats.put("books_written", written);
+        stats.put("books_failed", failed);
+        stats.put("queued", queue.size());
+        stats.put("max_books_per_commit", maxBooks);
+        stats.put("max_delay_ms", TimeUnit.NANOSECONDS.toMillis(maxDelayNanos));
+        return stats;
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBooks);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Pending first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBooks) {
+                    Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                try {
+                    commit(batch);
+                } catch (RuntimeException e) {
+                    System.err.println("[GroupCommit] Error writing batch: " + e.getMessage());
+                    batch.forEach(p -> { if (!p.done.isDone()) fail(p); });
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            batch.forEach(p -> p.done.complete(false));
+        }
+    }
+
+    /** If the shared commit fails its books are retried one by one, so one bad book fails alone. */
+    private void commit(List<Pending> batch) {
+        if (write(batch)) return;
+        if (batch.size() == 1) {
+            fail(batch.get(0));
+            return;
+        }
+        for (Pending pending : batch) {
+            if (!write(List.of(pending))) fail(pending);
+        }
+    }
+
+    private boolean write(List<Pending> batch) {
+        List<BookIndex> books = new ArrayList<>(batch.size());
+        for (Pending pending : batch) books.add(pending.book);
+        if (!repository.writeBooks(books)) return false;
+
+        synchronized (this) {
+            commits++;
+            written += batch.size();
+        }
+        batch.forEach(p -> p.done.complete(true));
+        return true;
+    }
+
+    private void fail(Pending pending) {
+        synchronized (this) {
+            failed++;
+        }
+        pending.done.complete(false);
+    }
+
+    private static final class Pending {
+        final BookIndex book;
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        Pending(BookIndex book) {
+            this.book = book;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package es.ulpgc.searchengine.indexing.repository;
+
+import es.ulpgc.searchengine.indexing.index.BookIndex;
+
+import java.util.List;
+import java.util.Map;
+
+/** Where the group commit writer puts indexed books. */
+public interface IndexStore {
+
+    /** Writes the books so readers see all of them or none; false if nothing was written. */
+    boolean writeBooks(List<BookIndex> books);
+
+    /** Content hash of every book whose index is stored, to skip books that did not change. */
+    Map<Integer, String> contentHashes();
+
+    Map<String, Object> getStats();
+
+    default void close() {}
+}
@@ -0,0 +1,142 @@
+package es.ulpgc.searchengine.indexing.repository;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A fixed number of SQLite connections opened on first use and reused afterwards. Each one keeps
+ * its recently used prepared statements, so repeated queries are neither reconnected nor
+ * re-parsed. Connections are borrowed with {@link #acquire()} and given back by closing them.
+ */
+public final class SqliteConnectionPool implements AutoCloseable {
+
+    private static final int STATEMENT_CACHE_SIZE = 64;
+    private static final int BUSY_TIMEOUT_MS = 5000;
+
+    private final String url;
+    private final SQLiteConfig config;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<Slot> idle = new ConcurrentLinkedQueue<>();
+
+    public SqliteConnectionPool(String dbPath, int size, boolean readOnly) {
+        this.url = "jdbc:sqlite:" + dbPath;
+        this.permits = new Semaphore(size, true);
+        this.config = new SQLiteConfig();
+        config.setBusyTimeout(BUSY_TIMEOUT_MS);
+        config.setReadOnly(readOnly);
+        if (!readOnly) config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+    }
+
+    /** Borrows a connection, waiting while all of them are in use. */
+    public PooledConnection acquire() throws SQLException {
+        permits.acquireUninterruptibly();
+        Slot slot = idle.poll();
+        if (slot != null) return new PooledConnection(slot);
+        try {
+            return new PooledConnection(new Slot(config.createConnection(url)));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        Slot slot;
+        while ((slot = idle.poll()) != null) slot.closePhysical();
+    }
+
+    /**
+     * A borrowed connection; {@link #close()} returns it to the pool. Each borrow gets its own
+     * instance, so closing it again, even after someone else has borrowed the same connection,
+     * does nothing.
+     */
+    public final class PooledConnection implements AutoCloseable {
+
+        private final Slot slot;
+        private final Connection connection;
+        private boolean returned;
+
+        private PooledConnection(Slot slot) {
+            this.slot = slot;
+            this.connection = slot.connection;
+        }
+
+        /** Prepared statement for the SQL, reused across borrows; callers must not close it. */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return slot.prepare(sql);
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        @Override
+        public void close() {
+            if (returned) return;
+            returned = true;
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                idle.add(slot);
+            } catch (SQLException e) {
+                slot.closePhysical();
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /** A physical connection and its statement cache, idle or lent to one borrower at a time. */
+    private static final class Slot {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() <= STATEMENT_CACHE_SIZE) return false;
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                };
+
+        private Slot(Connection connection) {
+            this.connection = connection;
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                ps = connection.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            return ps;
+        }
+
+        private void closePhysical() {
+            statements.values().forEach(SqliteConnectionPool::closeQuietly);
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package es.ulpgc.searchengine.indexing.segment;
+
+import es.ulpgc.searchengine.indexing.index.BookIndex;
+import es.ulpgc.searchengine.indexing.index.PostingsCodec;
+import es.ulpgc.searchengine.indexing.index.TermTable;
+import es.ulpgc.searchengine.indexing.segment.SegmentManifest.Segment;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inverted index kept as immutable segment files listed in a {@link SegmentManifest}. Every
+ * commit writes its books as a new segment, one sequential file, and publishes it by replacing
+ * the manifest; nothing already written is touched, so readers never wait for the writer. A
+ * background thread merges segments as the {@link TieredMergePolicy} asks, dropping copies of
+ * books that a newer segment replaced. Merged segments stay on disk for a while after leaving
+ * the manifest, so readers that loaded the previous manifest can still open them.
+ */
+public final class SegmentIndex implements AutoCloseable {
+
+    private static final String PREFIX = "seg-";
+    private static final String SUFFIX = ".seg";
+    /** Tiempo que se conservan los segmentos fusionados para los lectores del manifiesto anterior */
+    private static final long DELETE_GRACE_MS = 60_000;
+    private static final long MERGE_CHECK_MS = 1000;
+    /** Tiempo que un segmento que hizo fallar una fusión queda fuera de las siguientes */
+    private static final long QUARANTINE_MS = 10 * 60_000;
+
+    private final Path dir;
+    private final TieredMergePolicy policy;
+    private volatile SegmentManifest manifest;
+    private long nextSegment;
+    /** Orden de los segmentos en el manifiesto: un append no puede adelantar a otro */
+    private final Object appendLock = new Object();
+    private final Object mergeSignal = new Object();
+    private final Map<String, Long> obsolete = new LinkedHashMap<>();
+    /** Segmento en cuarentena y hasta cuándo */
+    private final Map<String, Long> quarantined = new HashMap<>();
+    private final Thread merger;
+    private volatile boolean closed;
+
+    private long appended;
+    private long appendedBytes;
+    private long merges;
+    private long mergedBytes;
+    private long mergeNanos;
+
+    private SegmentIndex(Path dir, TieredMergePolicy policy, SegmentManifest manifest) {
+        this.dir = dir;
+        this.policy = policy;
+        this.manifest = manifest;
+        this.merger = new Thread(this::mergeLoop, "index-merge");
+        merger.setDaemon(true);
+    }
+
+    /**
+     * Opens the index in {@code dir}, creating it if needed. Files left by an interrupted write
+     * or merge, which the manifest does not list, are removed.
+     */
+    public static SegmentIndex open(Path dir, TieredMergePolicy policy) throws IOException {
+        Files.createDirectories(dir);
+        SegmentIndex index = new SegmentIndex(dir, policy, SegmentManifest.load(dir));
+        Set<String> listed = new HashSet<>();
+        for (Segment s : index.manifest.segments) {
+            listed.add(s.name);
+            index.nextSegment = Math.max(index.nextSegment, number(s.name) + 1);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(PREFIX) && !listed.contains(name)) {
+                    index.nextSegment = Math.max(index.nextSegment, number(name) + 1);
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        System.out.printf("[Segments] %d segmentos en %s (generación %d)%n",
+                index.manifest.segments.size(), dir, index.manifest.generation);
+        index.merger.start();
+        return index;
+    }
+
+    /**
+     * Writes the books as a new segment and publishes it. When it returns the books are durable
+     * and readers that load the manifest see them; if a book was already in the index this copy
+     * replaces the previous one.
+     */
+    public void append(List<BookIndex> books) throws IOException {
+        if (books.isEmpty()) return;
+        if (closed) throw new IllegalStateException("Segment index is closed");
+
+        // Si un libro llega dos veces en el mismo lote vale la última
+        TreeMap<Integer, BookIndex> byId = new TreeMap<>();
+        for (BookIndex book : books) byId.put(book.bookId, book);
+
+        Map<String, TermPostings> postings = new HashMap<>();
+        for (BookIndex book : byId.values()) {
+            TermTable terms = book.terms;
+            for (int id = 0; id < terms.size(); id++) {
+                TermPostings term = postings.computeIfAbsent(terms.term(id), TermPostings::new);
+                term.add(book.bookId, PostingsCodec.encode(terms.positions(id)), terms.positions(id).size());
+            }
+        }
+        List<TermPostings> sorted = new ArrayList<>(postings.values());
+        sorted.sort((a, b) -> Arrays.compareUnsigned(a.term, b.term));
+
+        synchronized (appendLock) {
+            String name = nextName();
+            Segment segment;
+            try (SegmentWriter writer = new SegmentWriter(dir.resolve(name))) {
+                for (BookIndex book : byId.values()) writer.addDoc(book.bookId, book.terms.positionCount());
+                for (TermPostings term : sorted) {
+                    writer.addTerm(term.term, term.count, term.docIds, term.positions, term.cf);
+                }
+                writer.finish();
+                segment = new Segment(name, writer.docCount(), writer.size());
+            }
+            replace(null, segment);
+            synchronized (this) {
+                appended++;
+                appendedBytes += segment.bytes;
+            }
+        }
+        synchronized (mergeSignal) {
+            mergeSignal.notifyAll();
+        }
+    }
+
+    /** Current set of segments, oldest first. */
+    public SegmentManifest manifest() {
+        return manifest;
+    }
+
+    /** Ids of every book in some segment. */
+    public Set<Integer> bookIds() throws IOException {
+        Set<Integer> ids = new HashSet<>();
+        for (Segment s : manifest.segments) {
+            SegmentReader reader = SegmentReader.open(dir.resolve(s.name), false);
+            for (int doc = 0; doc < reader.docCount(); doc++) ids.add(reader.docId(doc));
+        }
+        return ids;
+    }
+
+    /** Stops merging; a merge in progress is abandoned and its partial file removed. */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (mergeSignal) {
+            mergeSignal.notifyAll();
+        }
+        try {
+            merger.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        SegmentManifest current = manifest;
+        long docs = 0, bytes = 0;
+        Map<Integer, Integer> tiers = new TreeMap<>();
+        for (Segment s : current.segments) {
+            docs += s.docs;
+            bytes += s.bytes;
+            tiers.merge(policy.tier(s.bytes), 1, Integer::sum);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("generation", current.generation);
+        stats.put("segments", current.segments.size());
+        stats.put("docs", docs);   // cuenta también las copias que una más nueva ha sustituido
+        stats.put("bytes", bytes);
+        stats.put("segments_per_tier", tiers);
+        stats.put("appended_segments", appended);
+        stats.put("appended_bytes", appendedBytes);
+        stats.put("merges", merges);
+        stats.put("merged_bytes", mergedBytes);
+        stats.put("merge_ms", TimeUnit.NANOSECONDS.toMillis(mergeNanos));
+        stats.put("merge_factor", policy.mergeFactor());
+        stats.put("pending_deletes", obsolete.size());
+        stats.put("quarantined", quarantined.size());
+        return stats;
+    }
+
+    private void mergeLoop() {
+        while (!closed) {
+            try {
+                int start;
+                while (!closed && (start = policy.findMerge(manifest.segments, quarantine())) >= 0) {
+                    SegmentManifest snapshot = manifest;
+                    try {
+                        merge(snapshot, start);
+                    } catch (IOException | RuntimeException e) {
+                        quarantine(snapshot.segments.subList(start, start + policy.mergeFactor()), e);
+                    }
+                }
+                deleteObsolete();
+            } catch (RuntimeException e) {
+                System.err.println("[Segments] Error merging: " + e.getMessage());
+            }
+            synchronized (mergeSignal) {
+                if (closed) return;
+                try {
+                    mergeSignal.wait(MERGE_CHECK_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the run of segments starting at {@code start} into one. A book keeps only its copy
+     * from the newest segment that has it; copies replaced by a newer segment, inside the run or
+     * after it, are dropped.
+     */
+    private void merge(SegmentManifest snapshot, int start) throws IOException {
+        long began = System.nanoTime();
+        List<Segment> segments = snapshot.segments;
+        List<Segment> run = segments.subList(start, start + policy.mergeFactor());
+
+        BitSet newer = new BitSet();
+        for (int i = segments.size() - 1; i >= start + run.size(); i--) {
+            SegmentReader reader = SegmentReader.open(dir.resolve(segments.get(i).name), false);
+            for (int doc = 0; doc < reader.docCount(); doc++) newer.set(reader.docId(doc));
+        }
+        // superseded[i]: libros que algún segmento posterior a run[i] ya contiene
+        SegmentReader[] readers = new SegmentReader[run.size()];
+        BitSet[] superseded = new BitSet[run.size()];
+        for (int i = run.size() - 1; i >= 0; i--) {
+            readers[i] = SegmentReader.open(dir.resolve(run.get(i).name), true);
+            superseded[i] = (BitSet) newer.clone();
+            for (int doc = 0; doc < readers[i].docCount(); doc++) newer.set(readers[i].docId(doc));
+        }
+
+        TreeMap<Integer, Integer> docs = new TreeMap<>();
+        for (int i = 0; i < readers.length; i++) {
+            for (int doc = 0; doc < readers[i].docCount(); doc++) {
+                int id = readers[i].docId(doc);
+                if (!superseded[i].get(id)) docs.put(id, readers[i].wordCount(doc));
+            }
+        }
+
+        String name = nextName();
+        Segment merged = null;
+        try (SegmentWriter writer = new SegmentWriter(dir.resolve(name))) {
+            for (Map.Entry<Integer, Integer> doc : docs.entrySet()) writer.addDoc(doc.getKey(), doc.getValue());
+            if (!mergeTerms(readers, superseded, writer)) return;
+            if (writer.docCount() > 0) {
+                writer.finish();
+                merged = new Segment(name, writer.docCount(), writer.size());
+            }
+        }
+        replace(run, merged);
+
+        long inputBytes = 0;
+        for (Segment s : run) inputBytes += s.bytes;
+        synchronized (this) {
+            merges++;
+            mergedBytes += inputBytes;
+            mergeNanos += System.nanoTime() - began;
+            long now = System.currentTimeMillis();
+            for (Segment s : run) obsolete.put(s.name, now);
+        }
+        System.out.printf("[Segments] Fusionados %d segmentos (%d KB) en %s: %d libros%n",
+                run.size(), inputBytes / 1024, merged == null ? "-" : merged.name, docs.size());
+    }
+
+    /** Segments left out of merges for now; drops the ones whose time is up. */
+    private synchronized Set<String> quarantine() {
+        long now = System.currentTimeMillis();
+        quarantined.values().removeIf(until -> until <= now);
+        return new HashSet<>(quarantined.keySet());
+    }
+
+    /**
+     * Keeps a run that failed to merge from being retried at once, over and over. Only the
+     * segments that fail their checksum are set aside, or the whole run when none does, such as
+     * when the merged file could not be written.
+     */
+    private void quarantine(List<Segment> run, Exception cause) {
+        List<String> bad = new ArrayList<>();
+        for (Segment s : run) {
+            try {
+                SegmentReader.open(dir.resolve(s.name), true);
+            } catch (IOException | RuntimeException e) {
+                bad.add(s.name);
+            }
+        }
+        if (bad.isEmpty()) {
+            for (Segment s : run) bad.add(s.name);
+        }
+        synchronized (this) {
+            long until = System.currentTimeMillis() + QUARANTINE_MS;
+            for (String name : bad) quarantined.put(name, until);
+        }
+        System.err.printf("[Segments] Error merging %s..%s: %s; %s quedan fuera de las fusiones %d min%n",
+                run.get(0).name, run.get(run.size() - 1).name, cause.getMessage(), bad,
+                TimeUnit.MILLISECONDS.toMinutes(QUARANTINE_MS));
+    }
+
+    /** Writes the union of the terms of the readers in order; false if the index was closed meanwhile. */
+    private boolean mergeTerms(SegmentReader[] readers, BitSet[] superseded, SegmentWriter writer) throws IOException {
+        PriorityQueue<TermCursor> queue = new PriorityQueue<>();
+        for (int i = 0; i < readers.length; i++) {
+            TermCursor cursor = new TermCursor(i, readers[i]);
+            if (cursor.advance()) queue.add(cursor);
+        }
+
+        int capacity = 16;
+        long[] keys = new long[capacity];
+        int[] docIds = new int[capacity];
+        byte[][] positions = new byte[capacity][];
+        List<byte[]> gathered = new ArrayList<>();
+        List<TermCursor> same = new ArrayList<>();
+
+        while (!queue.isEmpty()) {
+            if (closed) return false;
+            byte[] term = queue.peek().term;
+            same.clear();
+            while (!queue.isEmpty() && Arrays.equals(queue.peek().term, term)) same.add(queue.poll());
+
+            // Postings vivos de cada segmento; ordenados por libro con clave (libro, índice)
+            int n = 0;
+            long cf = 0;
+            gathered.clear();
+            for (TermCursor cursor : same) {
+                SegmentReader.Postings p = cursor.reader.postings(cursor.index);
+                while (p.next()) {
+                    if (superseded[cursor.segment].get(p.docId())) continue;
+                    if (n == keys.length) keys = Arrays.copyOf(keys, n * 2);
+                    keys[n++] = ((long) p.docId() << 32) | gathered.size();
+                    gathered.add(p.positions());
+                    cf += p.count();
+                }
+                if (cursor.advance()) queue.add(cursor);
+            }
+            if (n == 0) continue;
+
+            Arrays.sort(keys, 0, n);
+            if (n > docIds.length) {
+                docIds = new int[keys.length];
+                positions = new byte[keys.length][];
+            }
+            for (int i = 0; i < n; i++) {
+                docIds[i] = (int) (keys[i] >>> 32);
+                positions[i] = gathered.get((int) keys[i]);
+            }
+            writer.addTerm(term, n, docIds, positions, cf);
+        }
+        return true;
+    }
+
+    /**
+     * Publishes a new manifest in which {@code run} (null for none) is replaced by
+     * {@code segment} (null for none); with no run the segment goes last, as the newest.
+     */
+    private synchronized void replace(List<Segment> run, Segment segment) throws IOException {
+        List<Segment> segments = new ArrayList<>(manifest.segments);
+        int at = segments.size();
+        if (run != null) {
+            // Solo el hilo de fusión quita segmentos, así que la secuencia sigue entera y en su sitio
+            for (int i = 0; i < segments.size(); i++) {
+                if (segments.get(i).name.equals(run.get(0).name)) at = i;
+            }
+            segments.subList(at, at + run.size()).clear();
+        }
+        if (segment != null) segments.add(at, segment);
+        SegmentManifest next = new SegmentManifest(manifest.generation + 1, segments);
+        next.write(dir);
+        manifest = next;
+    }
+
+    private void deleteObsolete() {
+        long limit = System.currentTimeMillis() - DELETE_GRACE_MS;
+        List<String> expired = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> it = obsolete.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                if (e.getValue() > limit) break;
+                expired.add(e.getKey());
+                it.remove();
+            }
+        }
+        for (String name : expired) {
+            try {
+                Files.deleteIfExists(dir.resolve(name));
+            } catch (IOException e) {
+                System.err.println("[Segments] Error deleting " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized String nextName() {
+        return String.format("%s%012d%s", PREFIX, nextSegment++, SUFFIX);
+    }
+
+    private static long number(String name) {
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.indexOf('.')));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /** Postings of one term while a segment is being built, in book id order. */
+    private static final class TermPostings {
+        final byte[] term;
+        int count;
+        int[] docIds = new int[4];
+        byte[][] positions = new byte[4][];
+        long cf;
+
+        TermPostings(String term) {
+            this.term = term.getBytes(StandardCharsets.UTF_8);
+        }
+
+        void add(int docId, byte[] encoded, int occurrences) {
+            if (count == docIds.length) {
+                docIds = Arrays.copyOf(docIds, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            docIds[count] = docId;
+            positions[count] = encoded;
+            count++;
+            cf += occurrences;
+        }
+    }
+
+    /** Position in the term dictionary of one segment of a merge. */
+    private static final class TermCursor implements Comparable<TermCursor> {
+        final int segment;
+        final SegmentReader reader;
+        int index = -1;
+        byte[] term;
+
+        TermCursor(int segment, SegmentReader reader) {
+            this.segment = segment;
+            this.reader = reader;
+        }
+
+        boolean advance() {
+            if (++index >= reader.termCount()) return false;
+            term = reader.term(index);
+            return true;
+        }
+
+        @Override
+        public int compareTo(TermCursor other) {
+            return Arrays.compareUnsigned(term, other.term);
+        }
+    }
+}
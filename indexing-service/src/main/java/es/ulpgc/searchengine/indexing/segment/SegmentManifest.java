@@ -0,0 +1,97 @@
+package es.ulpgc.searchengine.indexing.segment;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The set of segments that make up the index, oldest first, in the file {@code MANIFEST}:
+ *
+ * <pre>
+ * generation	12
+ * segment	seg-000000000041.seg	64	1830211
+ * segment	seg-000000000042.seg	3	90112
+ * </pre>
+ *
+ * A book may be in several segments when it was indexed again; the newest one holds its current
+ * postings. Every change writes a new manifest and renames it over the old one, so a reader
+ * that reads the manifest once sees a consistent set of segments, and segments are never
+ * modified, only replaced.
+ */
+public final class SegmentManifest {
+
+    public static final String FILE = "MANIFEST";
+
+    public final long generation;
+    public final List<Segment> segments;
+
+    public SegmentManifest(long generation, List<Segment> segments) {
+        this.generation = generation;
+        this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+    }
+
+    /** A segment file with its number of books and size in bytes. */
+    public static final class Segment {
+        public final String name;
+        public final int docs;
+        public final long bytes;
+
+        public Segment(String name, int docs, long bytes) {
+            this.name = name;
+            this.docs = docs;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Reads the manifest of {@code dir}; an empty index when there is none yet. */
+    public static SegmentManifest load(Path dir) throws IOException {
+        Path file = dir.resolve(FILE);
+        if (!Files.exists(file)) return new SegmentManifest(0, List.of());
+
+        long generation = 0;
+        List<Segment> segments = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t");
+            if (parts[0].equals("generation")) {
+                generation = Long.parseLong(parts[1]);
+            } else if (parts[0].equals("segment") && parts.length == 4) {
+                segments.add(new Segment(parts[1], Integer.parseInt(parts[2]), Long.parseLong(parts[3])));
+            }
+        }
+        return new SegmentManifest(generation, segments);
+    }
+
+    /** Writes the manifest durably and puts it in place of the previous one in a single rename. */
+    public void write(Path dir) throws IOException {
+        Path tmp = dir.resolve(FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile());
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("generation\t" + generation + "\n");
+            for (Segment s : segments) {
+                writer.write("segment\t" + s.name + "\t" + s.docs + "\t" + s.bytes + "\n");
+            }
+            writer.flush();
+            out.getChannel().force(true);
+        }
+        Files.move(tmp, dir.resolve(FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(dir);
+    }
+
+    /** Makes the rename durable; not every platform lets a directory be opened, hence the catch. */
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
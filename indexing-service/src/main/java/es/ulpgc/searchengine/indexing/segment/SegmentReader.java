@@ -0,0 +1,156 @@
+package es.ulpgc.searchengine.indexing.segment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a segment written by {@link SegmentWriter}, mapping the file into memory. Used by merges,
+ * which walk every book and term in order.
+ */
+public final class SegmentReader {
+
+    private final Path file;
+    private final ByteBuffer data;
+    private final long docsOffset;
+    private final int docCount;
+    private final long termIndexOffset;
+    private final int termCount;
+
+    private SegmentReader(Path file, ByteBuffer data) throws IOException {
+        this.file = file;
+        this.data = data;
+        int footer = data.limit() - SegmentWriter.FOOTER_BYTES;
+        if (footer < 8 || data.getInt(0) != SegmentWriter.MAGIC
+                || data.getInt(data.limit() - 4) != SegmentWriter.MAGIC) {
+            throw new IOException("Not a segment: " + file);
+        }
+        if (data.getInt(4) != SegmentWriter.VERSION) {
+            throw new IOException("Unsupported segment version " + data.getInt(4) + ": " + file);
+        }
+        this.docsOffset = data.getLong(footer);
+        this.docCount = data.getInt(footer + 8);
+        this.termIndexOffset = data.getLong(footer + 28);
+        this.termCount = data.getInt(footer + 36);
+    }
+
+    /** Maps the segment; with {@code verify} its checksum is checked first. */
+    public static SegmentReader open(Path file, boolean verify) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Segment too large to map: " + file);
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            SegmentReader reader = new SegmentReader(file, data);
+            if (verify) reader.verify();
+            return reader;
+        }
+    }
+
+    private void verify() throws IOException {
+        int crcAt = data.limit() - 12;
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate().position(0).limit(crcAt));
+        if (crc.getValue() != data.getLong(crcAt)) throw new IOException("Corrupt segment: " + file);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public int docCount() {
+        return docCount;
+    }
+
+    public int docId(int doc) {
+        return data.getInt((int) docsOffset + doc * 8);
+    }
+
+    public int wordCount(int doc) {
+        return data.getInt((int) docsOffset + doc * 8 + 4);
+    }
+
+    public int termCount() {
+        return termCount;
+    }
+
+    private int entry(int term) {
+        return (int) data.getLong((int) termIndexOffset + term * 8);
+    }
+
+    public byte[] term(int term) {
+        int entry = entry(term);
+        byte[] bytes = new byte[data.getInt(entry)];
+        data.get(entry + 4, bytes);
+        return bytes;
+    }
+
+    public int df(int term) {
+        int entry = entry(term);
+        return data.getInt(entry + 4 + data.getInt(entry));
+    }
+
+    /** Cursor over the postings of a term, in book id order. */
+    public Postings postings(int term) {
+        int entry = entry(term);
+        int at = entry + 4 + data.getInt(entry);
+        return new Postings(data.getInt(at), (int) data.getLong(at + 12));
+    }
+
+    public final class Postings {
+        private int left;
+        private int offset;
+        private int docId;
+        private int positionsStart;
+        private int positionsEnd;
+        private int count;
+
+        private Postings(int df, int offset) {
+            this.left = df;
+            this.offset = offset;
+        }
+
+        /** Moves to the next book; false once there are none left. */
+        public boolean next() {
+            if (left == 0) return false;
+            left--;
+            docId += readVInt();
+            positionsStart = offset;
+            count = readVInt();
+            for (int i = 0; i < count; i++) readVInt();
+            positionsEnd = offset;
+            return true;
+        }
+
+        public int docId() {
+            return docId;
+        }
+
+        /** Positions of the current book, encoded as by PostingsCodec. */
+        public byte[] positions() {
+            byte[] bytes = new byte[positionsEnd - positionsStart];
+            data.get(positionsStart, bytes);
+            return bytes;
+        }
+
+        /** Number of positions of the current book. */
+        public int count() {
+            return count;
+        }
+
+        private int readVInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(offset++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package es.ulpgc.searchengine.indexing.segment;
+
+import es.ulpgc.searchengine.indexing.index.BookIndex;
+import es.ulpgc.searchengine.indexing.repository.DatamartSQLite;
+import es.ulpgc.searchengine.indexing.repository.IndexStore;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index backend with the postings in a {@link SegmentIndex} and the book rows and content in
+ * the datamart, which the search service still reads them from. The rows are committed first
+ * and the segment is appended only once they are, so a failed commit appends nothing and the
+ * retry writes the books once. If the append fails the rows are simply written again on retry;
+ * until then the books have no postings, and {@link #contentHashes()} leaves them out so a
+ * restart indexes them again.
+ */
+public final class SegmentStore implements IndexStore {
+
+    private static final List<String> POSTINGS_STATS = List.of("terms", "postings", "postings_bytes", "terms_indexed");
+
+    private final DatamartSQLite datamart;
+    private final SegmentIndex segments;
+
+    public SegmentStore(DatamartSQLite datamart, SegmentIndex segments) {
+        this.datamart = datamart;
+        this.segments = segments;
+    }
+
+    @Override
+    public boolean writeBooks(List<BookIndex> books) {
+        if (!datamart.writeDocuments(books)) return false;
+        try {
+            segments.append(books);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Segments] Error writing " + books.size() + " books: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Hashes of the books that are in some segment. Books the datamart has but the segments do
+     * not, such as those indexed before switching backend, are left out so they get indexed.
+     */
+    @Override
+    public Map<Integer, String> contentHashes() {
+        Map<Integer, String> hashes = datamart.contentHashes();
+        try {
+            Set<Integer> indexed = segments.bookIds();
+            hashes.keySet().retainAll(indexed);
+        } catch (IOException e) {
+            System.err.println("[Segments] Error reading segment books: " + e.getMessage());
+            hashes.clear();
+        }
+        return hashes;
+    }
+
+    /**
+     * The datamart's counters without those for postings, which it only keeps when it writes
+     * them; the segment stats take their place.
+     */
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(datamart.getStats());
+        stats.keySet().removeAll(POSTINGS_STATS);
+        stats.put("segments", segments.stats());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        segments.close();
+    }
+}
@@ -0,0 +1,185 @@
+package es.ulpgc.searchengine.indexing.segment;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes one immutable segment file in a single sequential pass. Layout, big-endian:
+ *
+ * <pre>
+ * header       int magic "SEG1", int version
+ * docs         per book, by id: int book_id, int word_count
+ * postings     per term, per book by id: vint gap from the previous book id, then the positions
+ *              as stored by PostingsCodec (vint count, vint gaps)
+ * dictionary   per term, by UTF-8 bytes: int length, term bytes, int df, long cf,
+ *              long postings offset, int postings length
+ * term index   per term: long offset of its dictionary entry, for binary search
+ * footer       long docs offset, int doc count, long postings offset, long dictionary offset,
+ *              long term index offset, int term count, long CRC32 of everything before, int magic
+ * </pre>
+ *
+ * Books are added first, then terms in order. The file is written under a temporary name and
+ * only renamed to its final name once it is complete and synced, so a segment that exists is
+ * always whole.
+ */
+public final class SegmentWriter implements AutoCloseable {
+
+    public static final int MAGIC = 0x53454731;
+    public static final int VERSION = 1;
+    public static final int FOOTER_BYTES = 8 + 4 + 8 + 8 + 8 + 4 + 8 + 4;
+
+    private final Path file;
+    private final Path tmp;
+    private final FileOutputStream fileOut;
+    private final OutputStream out;
+    private final CRC32 crc = new CRC32();
+    private final byte[] scratch = new byte[8];
+    private long position;
+
+    private final long docsOffset;
+    private int docCount;
+    private int lastDoc = Integer.MIN_VALUE;
+    private long postingsOffset = -1;
+    private byte[] lastTerm;
+    private final List<byte[]> terms = new ArrayList<>();
+    private final List<long[]> termStats = new ArrayList<>();   // df, cf, offset, length
+    private boolean finished;
+
+    public SegmentWriter(Path file) throws IOException {
+        this.file = file;
+        this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.fileOut = new FileOutputStream(tmp.toFile());
+        this.out = new BufferedOutputStream(fileOut, 1 << 16);
+        writeInt(MAGIC);
+        writeInt(VERSION);
+        this.docsOffset = position;
+    }
+
+    /** Adds a book; ids must be increasing and every book added before the first term. */
+    public void addDoc(int bookId, int wordCount) throws IOException {
+        if (postingsOffset >= 0) throw new IllegalStateException("Books must be added before terms");
+        if (bookId <= lastDoc) throw new IllegalArgumentException("Book ids out of order: " + bookId);
+        writeInt(bookId);
+        writeInt(wordCount);
+        lastDoc = bookId;
+        docCount++;
+    }
+
+    /**
+     * Adds a term, which must sort after the previous one by unsigned UTF-8 bytes, with its first
+     * {@code count} postings: increasing book ids and the positions of each, encoded as by
+     * PostingsCodec. {@code cf} is the total number of positions.
+     */
+    public void addTerm(byte[] term, int count, int[] docIds, byte[][] positions, long cf) throws IOException {
+        if (postingsOffset < 0) postingsOffset = position;
+        if (lastTerm != null && Arrays.compareUnsigned(lastTerm, term) >= 0) {
+            throw new IllegalArgumentException("Terms out of order");
+        }
+        long start = position;
+        int prev = 0;
+        for (int i = 0; i < count; i++) {
+            writeVInt(docIds[i] - prev);
+            prev = docIds[i];
+            write(positions[i], 0, positions[i].length);
+        }
+        terms.add(term);
+        termStats.add(new long[] { count, cf, start, position - start });
+        lastTerm = term;
+    }
+
+    /** Writes the dictionary and footer, syncs the file and gives it its final name. */
+    public void finish() throws IOException {
+        if (postingsOffset < 0) postingsOffset = position;
+        long dictionaryOffset = position;
+        long[] entryOffsets = new long[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            entryOffsets[i] = position;
+            byte[] term = terms.get(i);
+            long[] stats = termStats.get(i);
+            writeInt(term.length);
+            write(term, 0, term.length);
+            writeInt((int) stats[0]);
+            writeLong(stats[1]);
+            writeLong(stats[2]);
+            writeInt((int) stats[3]);
+        }
+        long termIndexOffset = position;
+        for (long offset : entryOffsets) writeLong(offset);
+
+        writeLong(docsOffset);
+        writeInt(docCount);
+        writeLong(postingsOffset);
+        writeLong(dictionaryOffset);
+        writeLong(termIndexOffset);
+        writeInt(terms.size());
+        writeLong(crc.getValue());
+        writeInt(MAGIC);
+
+        out.flush();
+        fileOut.getChannel().force(true);
+        out.close();
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+
+    public int docCount() {
+        return docCount;
+    }
+
+    /** Bytes written so far; the size of the file once finished. */
+    public long size() {
+        return position;
+    }
+
+    /** Discards the file unless it was finished. */
+    @Override
+    public void close() {
+        if (finished) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            Files.deleteIfExists(tmp);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        crc.update(b, off, len);
+        position += len;
+    }
+
+    private void writeInt(int v) throws IOException {
+        scratch[0] = (byte) (v >>> 24);
+        scratch[1] = (byte) (v >>> 16);
+        scratch[2] = (byte) (v >>> 8);
+        scratch[3] = (byte) v;
+        write(scratch, 0, 4);
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    private void writeVInt(int v) throws IOException {
+        int n = 0;
+        while ((v & ~0x7F) != 0) {
+            scratch[n++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        scratch[n++] = (byte) v;
+        write(scratch, 0, n);
+    }
+}
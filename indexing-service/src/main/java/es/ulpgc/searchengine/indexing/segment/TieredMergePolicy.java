@@ -0,0 +1,57 @@
+package es.ulpgc.searchengine.indexing.segment;
+
+import es.ulpgc.searchengine.indexing.segment.SegmentManifest.Segment;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chooses which segments to merge. Segments fall in tiers by size, each {@code mergeFactor}
+ * times larger than the one below, with everything under {@code floorBytes} in the lowest tier;
+ * once {@code mergeFactor} adjacent segments share a tier they are merged into one of the next.
+ * Every byte is therefore rewritten about once per tier, and the number of segments a reader
+ * has to look at grows with the logarithm of the index size. Segments above
+ * {@code maxSegmentBytes} are left alone, and so are the ones the caller asks to skip.
+ *
+ * <p>Only adjacent segments are merged so the result can take their place in the manifest
+ * without changing which copy of a book is the newest.
+ */
+public final class TieredMergePolicy {
+
+    private final int mergeFactor;
+    private final long floorBytes;
+    private final long maxSegmentBytes;
+
+    public TieredMergePolicy(int mergeFactor, long floorBytes, long maxSegmentBytes) {
+        this.mergeFactor = Math.max(2, mergeFactor);
+        this.floorBytes = Math.max(1, floorBytes);
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    public int tier(long bytes) {
+        double ratio = (double) Math.max(bytes, floorBytes) / floorBytes;
+        return (int) (Math.log(ratio) / Math.log(mergeFactor));
+    }
+
+    /**
+     * Index of the first segment of the oldest run to merge, which is {@code mergeFactor}
+     * segments long, or -1 when nothing needs merging. No run includes a segment in {@code skip}.
+     */
+    public int findMerge(List<Segment> segments, Set<String> skip) {
+        int runStart = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment s = segments.get(i);
+            if (s.bytes > maxSegmentBytes || skip.contains(s.name)) {
+                runStart = i + 1;
+                continue;
+            }
+            if (i > runStart && tier(s.bytes) != tier(segments.get(i - 1).bytes)) runStart = i;
+            if (i - runStart + 1 == mergeFactor) return runStart;
+        }
+        return -1;
+    }
+
+    public int mergeFactor() {
+        return mergeFactor;
+    }
+}
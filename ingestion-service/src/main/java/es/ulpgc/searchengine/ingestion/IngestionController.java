@@ -31,7 +31,6 @@ public class IngestionController {
         try {
             int bookId = Integer.parseInt(ctx.pathParam("book_id"));
             String rawText = Downloader.get("https://www.gutenberg.org/files/" + bookId + "/" + bookId + "-0.txt");
-            Path bookDir = DatalakeManager.save(bookId, rawText);
             List<String> lines = Arrays.asList(rawText.split("\n"));
             int start = -1, end = lines.size();
             for (int i = 0; i < lines.size(); i++) {
@@ -48,8 +47,7 @@ public class IngestionController {
                     ? lines.subList(start, end)
                     : lines.subList(Math.min(50, lines.size()), lines.size());
 
-            Files.write(bookDir.resolve("header.txt"), header);
-            Files.write(bookDir.resolve("body.txt"), body);
+            Path bookDir = DatalakeManager.save(bookId, rawText, header, body);
             System.out.println("Book " + bookId + ": header=" + header.size() + " lines, body=" + body.size() + " lines");
 
             // ---- NUEVO: publicar evento document.ingested en ActiveMQ ----
@@ -1,16 +1,25 @@
 package es.ulpgc.searchengine.ingestion.utils;
 
+import es.ulpgc.searchengine.indexing.DatalakeCatalog;
+
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Stream;
 
 public class DatalakeManager {
 
     private static final Path BASE = Paths.get("./datalake");
 
-    public static Path save(int id, String rawText) throws Exception {
+    /** Dónde está cada libro; se mantiene al guardar para no recorrer el árbol en cada consulta */
+    private static final DatalakeCatalog CATALOG = DatalakeCatalog.open(BASE);
+
+    /**
+     * Writes the book's files and only then adds it to the catalog, so whoever finds it there
+     * finds it complete.
+     */
+    public static Path save(int id, String rawText, List<String> header, List<String> body) throws Exception {
         LocalDateTime now = LocalDateTime.now();
 
         Path dir = BASE.resolve(
@@ -20,19 +29,17 @@ public class DatalakeManager {
                         id);
 
         Files.createDirectories(dir);
-        Files.writeString(dir.resolve("raw.txt"), rawText);
+        byte[] raw = rawText.getBytes(StandardCharsets.UTF_8);
+        Files.write(dir.resolve("raw.txt"), raw);
+        Files.write(dir.resolve("header.txt"), header);
+        Files.write(dir.resolve("body.txt"), body);
+        CATALOG.put(id, dir, raw);
 
         return dir;
     }
 
     public static boolean exists(int id) {
-        try {
-            return Files.walk(BASE)
-                    .filter(Files::isDirectory)
-                    .anyMatch(p -> p.getFileName().toString().equals(String.valueOf(id)));
-        } catch (Exception e) {
-            return false;
-        }
+        return CATALOG.contains(id);
     }
 
     /**
@@ -42,24 +49,9 @@ public class DatalakeManager {
      */
     public static List<Integer> list() {
         List<Integer> ids = new ArrayList<>();
-
-        if (!Files.exists(BASE)) {
-            return ids;
-        }
-
-        try (Stream<Path> walk = Files.walk(BASE)) {
-            walk.filter(Files::isDirectory)
-                    .map(Path::getFileName)
-                    .map(Path::toString)
-                    .filter(name -> name.matches("\\d+"))   // Solo carpetas numéricas = bookId
-                    .map(Integer::parseInt)
-                    .distinct()
-                    .sorted()
-                    .forEach(ids::add);
-        } catch (Exception e) {
-            System.err.println("Error listing books in datalake: " + e.getMessage());
+        for (DatalakeCatalog.Entry entry : CATALOG.entries()) {
+            ids.add(entry.bookId);
         }
-
         return ids;
     }
 }
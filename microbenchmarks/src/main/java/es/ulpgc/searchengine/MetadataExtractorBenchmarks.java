@@ -0,0 +1,80 @@
+package es.ulpgc.searchengine;
+
+import es.ulpgc.searchengine.indexing.MetadataExtractor;
+import es.ulpgc.searchengine.indexing.MetadataExtractor.Meta;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Current single-pass metadata extraction against {@link LegacyMetadataExtractor} on real Gutenberg headers. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MetadataExtractorBenchmarks {
+
+    private static final String[] HEADERS = {"headers/46.txt", "headers/60.txt"};
+
+    private final List<Path> headers = new ArrayList<>();
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        for (String name : HEADERS) {
+            Path file = Files.createTempFile("header-", ".txt");
+            try (InputStream in = getClass().getClassLoader().getResourceAsStream(name)) {
+                if (in == null) throw new IOException("Missing benchmark resource " + name);
+                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            headers.add(file);
+        }
+
+        // El extractor antiguo escribe unas 15 líneas por cabecera: se descartan para no medir la consola
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (Path header : headers) checkSameMetadata(header);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+        for (Path header : headers) {
+            try {
+                Files.deleteIfExists(header);
+            } catch (IOException e) {
+                logError("Error deleting " + header, e);
+            }
+        }
+        headers.clear();
+    }
+
+    @Benchmark
+    public void legacyExtract(Blackhole bh) throws IOException {
+        for (Path header : headers) bh.consume(LegacyMetadataExtractor.extract(header));
+    }
+
+    @Benchmark
+    public void extract(Blackhole bh) throws IOException {
+        for (Path header : headers) bh.consume(MetadataExtractor.extract(header));
+    }
+
+    private void checkSameMetadata(Path header) throws IOException {
+        Meta legacy = LegacyMetadataExtractor.extract(header);
+        Meta current = MetadataExtractor.extract(header);
+        if (!legacy.title.equals(current.title) || !legacy.author.equals(current.author)
+                || !legacy.language.equals(current.language) || legacy.year != current.year) {
+            throw new IllegalStateException("Extractors disagree on " + header);
+        }
+    }
+
+    private void logError(String msg, Exception e) {
+        System.err.println(msg + ": " + e.getMessage());
+    }
+}
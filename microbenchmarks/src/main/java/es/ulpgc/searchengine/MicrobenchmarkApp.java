@@ -10,6 +10,7 @@ public class MicrobenchmarkApp {
         Options opt = new OptionsBuilder()
                 .include("es.ulpgc.searchengine.FileSystemBenchmarks")
                 .include("es.ulpgc.searchengine.TextBenchmarks")
+                .include("es.ulpgc.searchengine.MetadataExtractorBenchmarks")
                 .warmupIterations(2)
                 .measurementIterations(5)
                 .forks(1)
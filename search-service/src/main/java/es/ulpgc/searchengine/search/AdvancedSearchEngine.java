@@ -1,80 +1,250 @@
 package es.ulpgc.searchengine.search;
 
+import es.ulpgc.searchengine.search.index.Bm25;
+import es.ulpgc.searchengine.search.index.DocIdSets;
+import es.ulpgc.searchengine.search.index.PostingSource;
+import es.ulpgc.searchengine.search.index.PostingsCache;
+import es.ulpgc.searchengine.search.index.TermFrequencies;
+import es.ulpgc.searchengine.search.index.TermNormalizer;
+import es.ulpgc.searchengine.search.index.TopDocs;
+import es.ulpgc.searchengine.search.index.WandRanker;
+import es.ulpgc.searchengine.search.metadata.MetadataStore;
+import es.ulpgc.searchengine.search.query.BooleanQueryEvaluator;
+import es.ulpgc.searchengine.search.query.BooleanQueryParser;
+import es.ulpgc.searchengine.search.query.QueryNode;
 import es.ulpgc.searchengine.search.repository.DatamartSQLite;
+import es.ulpgc.searchengine.search.segment.MappedSegmentIndex;
+import org.roaringbitmap.RoaringBitmap;
+
 import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
 
 public class AdvancedSearchEngine {
 
+    /** Fields returned when the request does not ask for specific ones. */
+    public static final List<String> DEFAULT_FIELDS = List.of("book_id", "title", "author", "language", "year");
+
+    /** Memory budget of the postings cache when none is configured. */
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_RESULT_CACHE_ENTRIES = 10_000;
+    /** How often searches check whether the indexer has written a new generation. */
+    public static final long DEFAULT_GENERATION_CHECK_MS = 1000;
+
     private final DatamartSQLite repo;
+    /** Where queries read postings: the cache in front of SQLite, or the mapped segments */
+    private final PostingSource postings;
+    /** Null when reading segments: their pages are already cached by the OS */
+    private final PostingsCache cache;
+    private final MappedSegmentIndex segments;
+    private final ResultCache results;
+    private final long generationCheckMillis;
+    private volatile MetadataStore metadata;
+    private volatile long seenGeneration = -1;
+    private volatile long lastGenerationCheck;
 
     public AdvancedSearchEngine(DatamartSQLite repo) {
+        this(repo, null, DEFAULT_CACHE_BYTES, DEFAULT_RESULT_CACHE_ENTRIES, DEFAULT_GENERATION_CHECK_MS);
+    }
+
+    /**
+     * @param segments postings written by the indexer as segment files, or null to read them
+     *                 from the datamart; metadata and content always come from the datamart
+     */
+    public AdvancedSearchEngine(DatamartSQLite repo, MappedSegmentIndex segments, long cacheBytes,
+                                int resultCacheEntries, long generationCheckMillis) {
         this.repo = repo;
+        this.segments = segments;
+        this.cache = segments == null ? new PostingsCache(repo, cacheBytes) : null;
+        this.postings = segments == null ? cache : segments;
+        this.results = new ResultCache(resultCacheEntries);
+        this.generationCheckMillis = generationCheckMillis;
     }
 
-    public List<Map<String,Object>> search(String term, String author, String language, Integer year) {
-        term = term.toLowerCase();
-        List<Map<String,Object>> books = repo.allBooks();
-        List<Map<String,Object>> results = new ArrayList<>();
+    public SearchResults search(String term, String author, String language, Integer year) {
+        String key = key("search", String.join(" ", new TreeSet<>(TermNormalizer.terms(term))), author, language, year);
+        return cached(key, () -> matching(allTerms(term), author, language, year));
+    }
 
-        for (var b : books) {
-            String content = b.get("content").toString().toLowerCase();
-            if (!content.contains(term)) continue;
+    public SearchResults searchPhrase(String phrase, String author, String language, Integer year) {
+        String key = key("phrase", String.join(" ", TermNormalizer.tokens(phrase)), author, language, year);
+        return cached(key, () -> matching(BooleanQueryParser.phrase(phrase), author, language, year));
+    }
 
-            if (author != null && !author.isBlank())
-                if (!b.get("author").toString().toLowerCase().contains(author.toLowerCase()))
-                    continue;
+    /** Queries with AND, OR, NOT, parentheses and quoted phrases; see {@link BooleanQueryParser}. */
+    public SearchResults booleanSearch(String query, String author, String language, Integer year) {
+        String normalized = query == null ? "" : query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        String key = key("boolean", normalized, author, language, year);
+        return cached(key, () -> matching(BooleanQueryParser.parse(query), author, language, year));
+    }
 
-            if (language != null && !language.isBlank())
-                if (!b.get("language").toString().equalsIgnoreCase(language))
-                    continue;
+    /** The k books with the highest BM25 score for any of the query words, best first. */
+    public SearchResults rankedSearch(String query, String author, String language, Integer year, int k) {
+        Set<String> words = new TreeSet<>(TermNormalizer.terms(query));
+        String key = key("ranked:" + k, String.join(" ", words), author, language, year);
+        return cached(key, () -> ranked(words, author, language, year, k));
+    }
 
-            if (year != null)
-                if (!b.get("year").toString().equals(String.valueOf(year)))
-                    continue;
+    public SearchResults searchByYearRange(int start, int end, String term) {
+        String words = term == null ? "" : String.join(" ", new TreeSet<>(TermNormalizer.terms(term)));
+        return cached(key("range:" + start + ":" + end, words, null, null, null), () -> {
+            MetadataStore meta = metadata();
+            int[] ids = meta.bookIds(meta.yearRange(start, end));
+            if (term != null && !term.isBlank() && ids.length > 0)
+                ids = DocIdSets.intersect(ids, new BooleanQueryEvaluator(postings).evaluate(allTerms(term)));
+            return new SearchResults(ids, null);
+        });
+    }
 
-            results.add(b);
+    private SearchResults ranked(Set<String> words, String author, String language, Integer year, int k) {
+        List<TermFrequencies> terms = new ArrayList<>();
+        for (String t : words) {
+            terms.add(postings.termFrequencies(t));
         }
 
-        return results;
-    }
+        MetadataStore meta = metadata();
+        RoaringBitmap allowed = meta.filter(author, language, year);
+        IntPredicate accept = allowed == null ? d -> true : d -> allowed.contains(meta.doc(d));
 
-    public List<Map<String,Object>> searchPhrase(String phrase, String author, String language, Integer year) {
-        return search(phrase, author, language, year);
+        TopDocs top = WandRanker.topK(terms, new Bm25(meta.collectionStats()), k, accept);
+        float[] scores = new float[top.size()];
+        for (int i = 0; i < scores.length; i++) scores[i] = top.score(i);
+        return new SearchResults(top.docIds(), scores);
     }
 
-    public List<Map<String,Object>> booleanSearch(String query, String author, String language, Integer year) {
-        String[] terms = query.toLowerCase().split("and");
-        List<Map<String,Object>> result = search(terms[0].trim(), author, language, year);
+    /**
+     * Builds the rows of one page of results with only the requested fields. Metadata comes
+     * from memory; book content is read for the books of the page and only when {@code content}
+     * is among the fields. {@code score} is available for ranked results.
+     */
+    public List<Map<String,Object>> page(SearchResults results, int offset, int limit, Collection<String> fields) {
+        int from = Math.max(0, offset);
+        int to = (int) Math.min(results.total(), (long) from + Math.max(0, limit));
+        if (from >= to) return new ArrayList<>();
+
+        Map<Integer, Map<String,Object>> contents = Map.of();
+        if (fields.contains("content")) {
+            int[] ids = new int[to - from];
+            for (int i = from; i < to; i++) ids[i - from] = results.docId(i);
+            contents = repo.booksByIds(ids, List.of("content"));
+        }
 
-        for (int i = 1; i < terms.length; i++) {
-            List<Map<String,Object>> next = search(terms[i].trim(), author, language, year);
-            result.retainAll(next);
+        MetadataStore meta = metadata();
+        List<Map<String,Object>> rows = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            int doc = meta.doc(results.docId(i));
+            if (doc < 0) continue;
+            Map<String,Object> row = meta.row(doc, fields);
+            Map<String,Object> content = contents.get(results.docId(i));
+            if (content != null) row.put("content", content.get("content"));
+            if (results.ranked() && fields.contains("score")) row.put("score", results.score(i));
+            rows.add(row);
         }
+        return rows;
+    }
 
-        return result;
+    public Map<String,Object> getSearchStats() {
+        Map<String,Object> stats = new HashMap<>();
+        Map<String, Long> index = repo.indexStats();
+        stats.put("books", index.getOrDefault("books", 0L));
+        stats.put("index", index);
+        if (cache != null) stats.put("cache", cache.stats());
+        if (segments != null) stats.put("segments", segments.stats());
+        stats.put("result_cache", results.stats());
+        stats.put("status", "ok");
+        return stats;
     }
 
-    public List<Map<String,Object>> searchByYearRange(int start, int end, String term) {
-        List<Map<String,Object>> raw = repo.queryByYearRange(start, end);
+    /**
+     * Results of the query from the result cache, computed once for concurrent identical
+     * requests. Picks up a newer index generation first, at most once per check interval.
+     */
+    private SearchResults cached(String key, Supplier<SearchResults> compute) {
+        long now = System.currentTimeMillis();
+        if (now - lastGenerationCheck >= generationCheckMillis) {
+            lastGenerationCheck = now;
+            if (repo.indexGeneration() != seenGeneration) refreshCache();
+            else if (segments != null && segments.refresh()) results.clear();   // fusiones, o el segmento de libros cuyas filas ya se leyeron
+        }
+        return results.get(key, compute);
+    }
 
-        if (term == null || term.isBlank()) return raw;
+    /** Cache key: query kind, normalized query and the filters as the filters compare them. */
+    private static String key(String kind, String query, String author, String language, Integer year) {
+        return kind + '\u0001' + query
+                + '\u0001' + (author == null || author.isBlank() ? "" : author.toLowerCase(Locale.ROOT))
+                + '\u0001' + (language == null || language.isBlank() ? "" : language.toLowerCase(Locale.ROOT))
+                + '\u0001' + (year == null ? "" : year);
+    }
 
-        List<Map<String,Object>> out = new ArrayList<>();
-        for (var b : raw) {
-            if (b.get("content").toString().toLowerCase().contains(term.toLowerCase()))
-                out.add(b);
+    private SearchResults matching(QueryNode query, String author, String language, Integer year) {
+        int[] ids = new BooleanQueryEvaluator(postings).evaluate(query);
+        if (ids.length > 0) {
+            RoaringBitmap allowed = metadata().filter(author, language, year);
+            if (allowed != null) ids = metadata().retain(ids, allowed);
         }
-        return out;
+        return new SearchResults(ids, null);
     }
 
-    public Map<String,Object> getSearchStats() {
-        Map<String,Object> stats = new HashMap<>();
-        stats.put("books", repo.allBooks().size());
-        stats.put("status", "ok");
-        return stats;
+    /** Metadata of every book, loaded on first use and kept current by {@link #refreshCache()}. */
+    private MetadataStore metadata() {
+        MetadataStore store = metadata;
+        if (store == null) {
+            store = repo.loadMetadata(-1);
+            metadata = store;
+        }
+        return store;
+    }
+
+    /** Every indexable word of a plain query, all of them required. */
+    private static QueryNode allTerms(String text) {
+        List<QueryNode> terms = new ArrayList<>();
+        for (String t : new LinkedHashSet<>(TermNormalizer.terms(text))) {
+            terms.add(new QueryNode.Term(t));
+        }
+        if (terms.isEmpty()) return null;
+        return terms.size() == 1 ? terms.get(0) : new QueryNode.And(terms);
     }
 
-    public void refreshCache() {
-        // optional
+    /**
+     * Brings the caches up to date with the index. Only the books written since the last
+     * generation seen are read: their metadata rows are merged into the store, the cached
+     * postings that contain them, or that they now contain, are dropped and so are all cached
+     * query results.
+     */
+    public synchronized Map<String,Object> refreshCache() {
+        Map<String,Object> result = new LinkedHashMap<>();
+        MetadataStore current = metadata;
+        long generation = repo.indexGeneration();
+        // El indexador confirma las filas antes de añadir su segmento: un libro sin él aún no sale
+        // en las búsquedas, y cached() vacía los resultados cuando el segmento aparece
+        if (segments != null) segments.refresh();
+
+        if (current == null) {
+            if (cache != null) cache.clear();
+            results.clear();
+            metadata = repo.loadMetadata(-1);
+            result.put("changed_books", metadata.size());
+        } else if (generation != seenGeneration) {
+            MetadataStore changes = repo.loadMetadata(current.maxGeneration());
+            int[] changed = changes.bookIds();
+            // Con segmentos no hay caché de postings: nada que invalidar
+            if (cache != null && (long) changed.length * 2 > current.size()) {
+                cache.clear();
+            } else if (cache != null && changed.length > 0) {
+                cache.invalidateBooks(changed);
+                cache.invalidateTerms(repo.termsOfBooks(changed));
+            }
+            metadata = current.merge(changes);
+            results.clear();
+            result.put("changed_books", changed.length);
+        } else {
+            result.put("changed_books", 0);
+        }
+
+        seenGeneration = generation;
+        result.put("generation", generation);
+        result.put("books", metadata.size());
+        return result;
     }
 }
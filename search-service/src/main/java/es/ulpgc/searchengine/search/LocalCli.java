@@ -3,7 +3,6 @@ package es.ulpgc.searchengine.search;
 import es.ulpgc.searchengine.search.repository.DatamartSQLite;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class LocalCli {
 
@@ -59,7 +58,7 @@ public class LocalCli {
 
                 Query q = parseQuery(line);
                 try {
-                    List<Map<String, Object>> results = execute(q, engine, repository);
+                    List<Map<String, Object>> results = execute(q, engine);
                     printResults(q.mode.name().toLowerCase(), displayQuery(q), results);
                 } catch (Throwable t) {
                     System.err.println("Error while searching:");
@@ -112,26 +111,22 @@ public class LocalCli {
         return new Query(Mode.BASIC, remaining.trim(), null, null, null, null, author, language, year);
     }
 
-    private static List<Map<String, Object>> execute(Query q, AdvancedSearchEngine engine, DatamartSQLite repo) {
+    private static List<Map<String, Object>> execute(Query q, AdvancedSearchEngine engine) {
+        SearchResults results;
         switch (q.mode) {
             case PHRASE:
-                return engine.searchPhrase(q.phrase, q.author, q.language, q.year);
+                results = engine.searchPhrase(q.phrase, q.author, q.language, q.year);
+                break;
             case BOOLEAN:
-                return engine.booleanSearch(q.booleanExpr, q.author, q.language, q.year);
+                results = engine.booleanSearch(q.booleanExpr, q.author, q.language, q.year);
+                break;
             case RANGE:
-                if (q.term != null) {
-                    List<Map<String, Object>> byRange = repo.queryByYearRange(q.startYear, q.endYear);
-                    return byRange.stream()
-                            .filter(row -> !engine.search(q.term,
-                                    (String) row.get("author"),
-                                    (String) row.get("language"),
-                                    (Integer) row.get("year")).isEmpty())
-                            .collect(Collectors.toList());
-                }
-                return repo.queryByYearRange(q.startYear, q.endYear);
+                results = engine.searchByYearRange(q.startYear, q.endYear, q.term);
+                break;
             default:
-                return engine.search(q.term, q.author, q.language, q.year);
+                results = engine.search(q.term, q.author, q.language, q.year);
         }
+        return engine.page(results, 0, results.total(), AdvancedSearchEngine.DEFAULT_FIELDS);
     }
 
     private static void printHelp() {
@@ -0,0 +1,98 @@
+package es.ulpgc.searchengine.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Results of recent queries keyed by their normalized form, least recently used evicted first.
+ * Identical queries arriving while one is being computed wait for that result instead of
+ * computing it again. {@link #clear()} is called whenever the index generation changes.
+ */
+final class ResultCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, SearchResults> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<SearchResults>> inFlight = new ConcurrentHashMap<>();
+    private long epoch;
+    private long hits;
+    private long misses;
+    private long coalesced;
+
+    ResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    SearchResults get(String key, Supplier<SearchResults> compute) {
+        long seen;
+        synchronized (this) {
+            SearchResults cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            seen = epoch;
+        }
+
+        CompletableFuture<SearchResults> mine = new CompletableFuture<>();
+        CompletableFuture<SearchResults> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            synchronized (this) {
+                coalesced++;
+            }
+            return await(running);
+        }
+
+        try {
+            SearchResults results = compute.get();
+            synchronized (this) {
+                misses++;
+                if (seen == epoch && maxEntries > 0) put(key, results);
+            }
+            mine.complete(results);
+            return results;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    synchronized void clear() {
+        epoch++;
+        entries.clear();
+    }
+
+    synchronized Map<String,Object> stats() {
+        Map<String,Object> stats = new LinkedHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("max_entries", maxEntries);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("coalesced", coalesced);
+        return stats;
+    }
+
+    private void put(String key, SearchResults results) {
+        entries.put(key, results);
+        Iterator<SearchResults> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static SearchResults await(CompletableFuture<SearchResults> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+}
@@ -2,14 +2,30 @@ package es.ulpgc.searchengine.search;
 
 import io.javalin.Javalin;
 import es.ulpgc.searchengine.search.repository.DatamartSQLite;
+import es.ulpgc.searchengine.search.segment.MappedSegmentIndex;
+
+import java.nio.file.Paths;
 
 public class SearchApp {
     public static void main(String[] args) {
         int port = 7003;
         String dbPath = System.getenv().getOrDefault("DATAMART_DB", "./datamart/index.db");
-        DatamartSQLite repository = new DatamartSQLite(dbPath);
+        int poolSize = Integer.parseInt(System.getenv().getOrDefault("SEARCH_DB_POOL_SIZE",
+                String.valueOf(DatamartSQLite.DEFAULT_POOL_SIZE)));
+        DatamartSQLite repository = new DatamartSQLite(dbPath, poolSize);
         repository.initSchema();
-        AdvancedSearchEngine engine = new AdvancedSearchEngine(repository);
+        long cacheMb = Long.parseLong(System.getenv().getOrDefault("SEARCH_CACHE_MB", "64"));
+        int resultCacheEntries = Integer.parseInt(System.getenv().getOrDefault("SEARCH_RESULT_CACHE_ENTRIES", "10000"));
+        long generationCheckMs = Long.parseLong(System.getenv().getOrDefault("SEARCH_GENERATION_CHECK_MS", "1000"));
+
+        // INDEX_BACKEND=segments: postings de los ficheros de segmentos del indexador, mapeados en memoria
+        MappedSegmentIndex segments = null;
+        if ("segments".equalsIgnoreCase(System.getenv().getOrDefault("INDEX_BACKEND", "sqlite"))) {
+            segments = MappedSegmentIndex.open(Paths.get(System.getenv().getOrDefault("INDEX_SEGMENTS_DIR",
+                    Paths.get(dbPath).resolveSibling("segments").toString())));
+        }
+        AdvancedSearchEngine engine = new AdvancedSearchEngine(repository, segments, cacheMb * 1024 * 1024,
+                resultCacheEntries, generationCheckMs);
         SearchController controller = new SearchController(engine);
 
         Javalin app = Javalin.create(cfg -> cfg.http.defaultContentType = "application/json").start(port);
@@ -18,9 +34,11 @@ public class SearchApp {
         System.out.println("Advanced Search Service running on port " + port);
         System.out.println("Available endpoints:");
         System.out.println("GET  /search?q=term&author=name&language=lang&year=yyyy");
+        System.out.println("GET  /search?q=terms&ranked=true&k=10 (BM25 top-k)");
         System.out.println("POST /search/advanced?q=query (supports AND/OR/NOT)");
         System.out.println("GET  /search/phrase?phrase=exact phrase");
         System.out.println("GET  /search/range?start_year=yyyy&end_year=yyyy&q=term");
         System.out.println("GET  /search/stats");
+        System.out.println("All searches accept limit, offset and fields=book_id,title,author,...");
     }
 }
\ No newline at end of file
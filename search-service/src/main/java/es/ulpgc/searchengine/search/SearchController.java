@@ -3,10 +3,16 @@ package es.ulpgc.searchengine.search;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import com.google.gson.Gson;
+import es.ulpgc.searchengine.search.repository.DatamartSQLite;
 import java.util.*;
 
 public class SearchController {
     private static final Gson gson = new Gson();
+    private static final int DEFAULT_TOP_K = 10;
+    private static final int MAX_TOP_K = 1000;
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 1000;
+    private static final Set<String> RESULT_FIELDS = resultFields();
     private final AdvancedSearchEngine engine;
 
     public SearchController(AdvancedSearchEngine engine) {
@@ -43,18 +49,26 @@ public class SearchController {
             String language = ctx.queryParam("language");
             String yearStr = ctx.queryParam("year");
             Integer year = (yearStr != null && !yearStr.isBlank()) ? Integer.parseInt(yearStr) : null;
-            List<Map<String, Object>> results = engine.search(term, author, language, year);
+            boolean ranked = Boolean.parseBoolean(ctx.queryParam("ranked"));
+            SearchResults results = ranked
+                    ? engine.rankedSearch(term, author, language, year, parseTopK(ctx))
+                    : engine.search(term, author, language, year);
             Map<String, Object> response = new HashMap<>();
             response.put("query", term);
+            if (ranked) response.put("type", "ranked_bm25");
             Map<String, Object> filters = new HashMap<>();
             filters.put("author", author != null ? author : "");
             filters.put("language", language != null ? language : "");
             filters.put("year", year != null ? year : "");
             response.put("filters", filters);
-            response.put("count", results.size());
-            response.put("results", results != null ? results : new ArrayList<>());
+            putPage(response, ctx, results);
             ctx.result(gson.toJson(response));
 
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(gson.toJson(Map.of(
+                    "error", "invalid_request",
+                    "message", e.getMessage()
+            )));
         } catch (Exception e) {
             System.err.println("Error in search: " + e.getMessage());
             ctx.status(500).result(gson.toJson(createErrorResponse("internal_server_error")));
@@ -77,8 +91,8 @@ public class SearchController {
         Integer year = (yearStr != null && !yearStr.isBlank()) ? Integer.parseInt(yearStr) : null;
 
         try {
-            List<Map<String, Object>> results = engine.booleanSearch(query, author, language, year);
-            System.out.println("Advanced search found " + results.size() + " results");
+            SearchResults results = engine.booleanSearch(query, author, language, year);
+            System.out.println("Advanced search found " + results.total() + " results");
             Map<String, Object> response = new HashMap<>();
             response.put("query", query);
             response.put("type", "boolean_search");
@@ -87,10 +101,14 @@ public class SearchController {
             filters.put("language", language != null ? language : "");
             filters.put("year", year != null ? year : "");
             response.put("filters", filters);
-            response.put("count", results.size());
-            response.put("results", results);
+            putPage(response, ctx, results);
             ctx.result(gson.toJson(response));
 
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(gson.toJson(Map.of(
+                    "error", "invalid_query",
+                    "message", e.getMessage()
+            )));
         } catch (Exception e) {
             System.err.println("Error in advanced search: " + e.getMessage());
             ctx.status(500).result(gson.toJson(Map.of(
@@ -112,7 +130,7 @@ public class SearchController {
         Integer year = (yearStr != null && !yearStr.isBlank()) ? Integer.parseInt(yearStr) : null;
 
         try {
-            List<Map<String, Object>> results = engine.searchPhrase(phrase, author, language, year);
+            SearchResults results = engine.searchPhrase(phrase, author, language, year);
             Map<String, Object> response = new HashMap<>();
             response.put("phrase", phrase);
             response.put("type", "phrase_search");
@@ -121,9 +139,13 @@ public class SearchController {
             filters.put("language", language != null ? language : "");
             filters.put("year", year != null ? year : "");
             response.put("filters", filters);
-            response.put("count", results.size());
-            response.put("results", results);
+            putPage(response, ctx, results);
             ctx.result(gson.toJson(response));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(gson.toJson(Map.of(
+                    "error", "invalid_request",
+                    "message", e.getMessage()
+            )));
         } catch (Exception e) {
             ctx.status(500).result(gson.toJson(Map.of(
                     "error", "search_failed",
@@ -141,19 +163,28 @@ public class SearchController {
             return;
         }
 
+        int startYear, endYear;
         try {
-            Integer startYear = Integer.parseInt(startYearStr);
-            Integer endYear = Integer.parseInt(endYearStr);
-            List<Map<String, Object>> results = engine.searchByYearRange(startYear, endYear, term);
-            ctx.result(gson.toJson(Map.of(
-                    "range", startYear + "-" + endYear,
-                    "term", term,
-                    "type", "year_range_search",
-                    "count", results.size(),
-                    "results", results
-            )));
+            startYear = Integer.parseInt(startYearStr);
+            endYear = Integer.parseInt(endYearStr);
         } catch (NumberFormatException e) {
             ctx.status(400).result(gson.toJson(Map.of("error", "invalid_year_format")));
+            return;
+        }
+
+        try {
+            SearchResults results = engine.searchByYearRange(startYear, endYear, term);
+            Map<String, Object> response = new HashMap<>();
+            response.put("range", startYear + "-" + endYear);
+            response.put("term", term);
+            response.put("type", "year_range_search");
+            putPage(response, ctx, results);
+            ctx.result(gson.toJson(response));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(gson.toJson(Map.of(
+                    "error", "invalid_request",
+                    "message", e.getMessage()
+            )));
         }
     }
 
@@ -163,8 +194,60 @@ public class SearchController {
     }
 
     private void refreshCache(Context ctx) {
-        engine.refreshCache();
-        ctx.result(gson.toJson(Map.of("status", "cache_refreshed")));
+        Map<String, Object> response = new LinkedHashMap<>(engine.refreshCache());
+        response.put("status", "cache_refreshed");
+        ctx.result(gson.toJson(response));
+    }
+
+    /**
+     * Adds one page of results to the response: {@code count} is the total number of matches,
+     * {@code offset}/{@code limit} select the page and {@code fields} the columns of each row.
+     */
+    private void putPage(Map<String, Object> response, Context ctx, SearchResults results) {
+        int offset = Math.max(0, intParam(ctx, "offset", 0));
+        int limit = Math.max(0, Math.min(MAX_LIMIT, intParam(ctx, "limit", DEFAULT_LIMIT)));
+        List<String> fields = parseFields(ctx.queryParam("fields"), results.ranked());
+
+        response.put("count", results.total());
+        response.put("offset", offset);
+        response.put("limit", limit);
+        response.put("results", engine.page(results, offset, limit, fields));
+    }
+
+    /** Comma separated subset of {@link #RESULT_FIELDS}; metadata (plus score when ranked) by default. */
+    private static List<String> parseFields(String fields, boolean ranked) {
+        if (fields == null || fields.isBlank()) {
+            List<String> defaults = new ArrayList<>(AdvancedSearchEngine.DEFAULT_FIELDS);
+            if (ranked) defaults.add("score");
+            return defaults;
+        }
+
+        List<String> out = new ArrayList<>();
+        for (String f : fields.split(",")) {
+            String name = f.trim().toLowerCase();
+            if (name.isEmpty()) continue;
+            if (!RESULT_FIELDS.contains(name)) throw new IllegalArgumentException("Unknown field '" + name + "'");
+            if (!out.contains(name)) out.add(name);
+        }
+        return out;
+    }
+
+    /** Result size of ranked searches: {@code k}, or enough to fill the requested page. */
+    private static int parseTopK(Context ctx) {
+        int pageEnd = Math.max(0, intParam(ctx, "offset", 0)) + intParam(ctx, "limit", DEFAULT_LIMIT);
+        int k = intParam(ctx, "k", Math.max(DEFAULT_TOP_K, pageEnd));
+        return Math.max(1, Math.min(MAX_TOP_K, k));
+    }
+
+    private static int intParam(Context ctx, String name, int defaultValue) {
+        String value = ctx.queryParam(name);
+        return (value == null || value.isBlank()) ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static Set<String> resultFields() {
+        Set<String> fields = new HashSet<>(DatamartSQLite.BOOK_FIELDS);
+        fields.add("score");
+        return Set.copyOf(fields);
     }
 
     private Map<String, Object> createErrorResponse(String error) {
@@ -0,0 +1,34 @@
+package es.ulpgc.searchengine.search;
+
+/**
+ * Ids of the books matching a query in result order, with their scores for ranked queries.
+ * Rows are only built for the page being returned, see {@link AdvancedSearchEngine#page}.
+ */
+public final class SearchResults {
+
+    public static final SearchResults EMPTY = new SearchResults(new int[0], null);
+
+    private final int[] docIds;
+    private final float[] scores;
+
+    public SearchResults(int[] docIds, float[] scores) {
+        this.docIds = docIds;
+        this.scores = scores;
+    }
+
+    public int total() {
+        return docIds.length;
+    }
+
+    public int docId(int i) {
+        return docIds[i];
+    }
+
+    public boolean ranked() {
+        return scores != null;
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+}
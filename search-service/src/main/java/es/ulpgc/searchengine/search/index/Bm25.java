@@ -0,0 +1,44 @@
+package es.ulpgc.searchengine.search.index;
+
+/** Okapi BM25 term weighting. */
+public final class Bm25 {
+
+    public static final double DEFAULT_K1 = 1.2;
+    public static final double DEFAULT_B = 0.75;
+
+    private final double k1;
+    private final double b;
+    private final CollectionStats stats;
+
+    public Bm25(CollectionStats stats) {
+        this(stats, DEFAULT_K1, DEFAULT_B);
+    }
+
+    public Bm25(CollectionStats stats, double k1, double b) {
+        this.stats = stats;
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    public double idf(int documentFrequency) {
+        int n = stats.documentCount();
+        return Math.log(1 + (n - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    public double score(double idf, int freq, int docId) {
+        return weight(idf, freq, stats.length(docId));
+    }
+
+    /**
+     * The score grows with the frequency and shrinks with the book length, so
+     * {@code weight(idf, maxFreq, stats.minLength())} bounds every posting of a list.
+     */
+    public double weight(double idf, int freq, double length) {
+        double norm = k1 * (1 - b + b * length / stats.averageLength());
+        return idf * freq * (k1 + 1) / (freq + norm);
+    }
+
+    public double upperBound(double idf, int maxFreq) {
+        return weight(idf, maxFreq, stats.minLength());
+    }
+}
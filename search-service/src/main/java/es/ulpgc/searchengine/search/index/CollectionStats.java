@@ -0,0 +1,48 @@
+package es.ulpgc.searchengine.search.index;
+
+import java.util.Arrays;
+
+/** Number of books and the word count of each one, as needed by BM25. */
+public final class CollectionStats {
+
+    private final int[] docIds;
+    private final int[] lengths;
+    private final double averageLength;
+    private final int minLength;
+
+    public CollectionStats(int[] docIds, int[] lengths) {
+        this.docIds = docIds;
+        this.lengths = lengths;
+
+        long total = 0;
+        int counted = 0;
+        int min = Integer.MAX_VALUE;
+        for (int len : lengths) {
+            if (len <= 0) continue;
+            total += len;
+            counted++;
+            min = Math.min(min, len);
+        }
+        this.averageLength = counted == 0 ? 1 : (double) total / counted;
+        this.minLength = counted == 0 ? 1 : min;
+    }
+
+    public int documentCount() {
+        return docIds.length;
+    }
+
+    public double averageLength() {
+        return averageLength;
+    }
+
+    public int minLength() {
+        return minLength;
+    }
+
+    /** Word count of the book; books indexed before word counts were stored get the average. */
+    public double length(int docId) {
+        int i = Arrays.binarySearch(docIds, docId);
+        if (i < 0 || lengths[i] <= 0) return averageLength;
+        return lengths[i];
+    }
+}
@@ -0,0 +1,119 @@
+package es.ulpgc.searchengine.search.index;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/** Set operations over sorted, duplicate-free arrays of book ids. */
+public final class DocIdSets {
+
+    public static final int[] EMPTY = new int[0];
+
+    /** Size ratio above which intersections gallop through the longer list instead of merging. */
+    private static final int GALLOP_RATIO = 8;
+
+    private DocIdSets() {}
+
+    /** Intersects all lists, starting from the shortest one. */
+    public static int[] intersectAll(List<int[]> lists) {
+        if (lists.isEmpty()) return EMPTY;
+        int[][] sorted = lists.toArray(new int[0][]);
+        Arrays.sort(sorted, Comparator.comparingInt(a -> a.length));
+
+        int[] result = sorted[0];
+        for (int i = 1; i < sorted.length && result.length > 0; i++) {
+            result = intersect(result, sorted[i]);
+        }
+        return result;
+    }
+
+    public static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        if (a.length == 0) return EMPTY;
+        if ((long) a.length * GALLOP_RATIO < b.length) return gallopIntersect(a, b);
+
+        int[] out = new int[a.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /** Walks the short list and skips through the long one, so cost grows with the short list. */
+    private static int[] gallopIntersect(int[] small, int[] large) {
+        int[] out = new int[small.length];
+        int n = 0;
+        int j = 0;
+        for (int id : small) {
+            j = seek(large, j, id);
+            if (j >= large.length) break;
+            if (large[j] == id) out[n++] = id;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    public static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) out[n++] = a[i++];
+            else if (a[i] > b[j]) out[n++] = b[j++];
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        while (i < a.length) out[n++] = a[i++];
+        while (j < b.length) out[n++] = b[j++];
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /** Ids of {@code a} that are not in {@code b}. */
+    public static int[] difference(int[] a, int[] b) {
+        if (a.length == 0 || b.length == 0) return a;
+
+        int[] out = new int[a.length];
+        int n = 0;
+        int j = 0;
+        for (int id : a) {
+            j = seek(b, j, id);
+            if (j >= b.length || b[j] != id) out[n++] = id;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    public static boolean contains(int[] sorted, int id) {
+        return Arrays.binarySearch(sorted, id) >= 0;
+    }
+
+    /** First index at or after {@code from} whose id is {@code >= target}, galloping then binary searching. */
+    public static int seek(int[] ids, int from, int target) {
+        if (from >= ids.length || ids[from] >= target) return from;
+        int step = 1;
+        int lo = from;
+        int hi = from + 1;
+        while (hi < ids.length && ids[hi] < target) {
+            lo = hi;
+            step <<= 1;
+            hi = from + step;
+        }
+        hi = Math.min(hi, ids.length);
+        int idx = Arrays.binarySearch(ids, lo + 1, hi, target);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+}
@@ -0,0 +1,78 @@
+package es.ulpgc.searchengine.search.index;
+
+import java.util.Arrays;
+
+/**
+ * Finds the books where a sequence of terms appears at fixed relative offsets.
+ * Books are found by walking the postings of the rarest term and seeking the others,
+ * and positions are only checked for books that contain every term.
+ */
+public final class PhraseMatcher {
+
+    private PhraseMatcher() {}
+
+    /**
+     * @param postings postings of each phrase term, in phrase order
+     * @param offsets  offset of each term from the start of the phrase
+     * @return sorted ids of the books containing the phrase
+     */
+    public static int[] match(PostingList[] postings, int[] offsets) {
+        int n = postings.length;
+        if (n == 0) return DocIdSets.EMPTY;
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            if (postings[i].size() == 0) return DocIdSets.EMPTY;
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(postings[a].size(), postings[b].size()));
+
+        PostingList lead = postings[order[0]];
+        int[] cursor = new int[n];
+        int[] docIndex = new int[n];
+        int[] out = new int[lead.size()];
+        int found = 0;
+
+        candidates:
+        for (int d = 0; d < lead.size(); d++) {
+            int doc = lead.docId(d);
+            docIndex[order[0]] = d;
+
+            for (int k = 1; k < n; k++) {
+                int t = order[k];
+                int idx = DocIdSets.seek(postings[t].docIds(), cursor[t], doc);
+                cursor[t] = idx;
+                if (idx >= postings[t].size()) break candidates;
+                if (postings[t].docId(idx) != doc) continue candidates;
+                docIndex[t] = idx;
+            }
+
+            if (containsPhrase(postings, offsets, docIndex)) out[found++] = doc;
+        }
+
+        return Arrays.copyOf(out, found);
+    }
+
+    /** Checks one book, anchoring on the term with the fewest positions and stopping at the first hit. */
+    private static boolean containsPhrase(PostingList[] postings, int[] offsets, int[] docIndex) {
+        int anchor = 0;
+        for (int t = 1; t < postings.length; t++) {
+            if (postings[t].positions(docIndex[t]).length < postings[anchor].positions(docIndex[anchor]).length)
+                anchor = t;
+        }
+
+        int[] anchorPositions = postings[anchor].positions(docIndex[anchor]);
+        positions:
+        for (int p : anchorPositions) {
+            int start = p - offsets[anchor];
+            if (start < 0) continue;
+            for (int t = 0; t < postings.length; t++) {
+                if (t == anchor) continue;
+                if (Arrays.binarySearch(postings[t].positions(docIndex[t]), start + offsets[t]) < 0)
+                    continue positions;
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,34 @@
+package es.ulpgc.searchengine.search.index;
+
+/**
+ * Postings of one term: the sorted ids of the books that contain it and, for each
+ * book, the sorted token positions where it occurs.
+ */
+public final class PostingList {
+
+    public static final PostingList EMPTY = new PostingList(new int[0], new int[0][]);
+
+    private final int[] docIds;
+    private final int[][] positions;
+
+    public PostingList(int[] docIds, int[][] positions) {
+        this.docIds = docIds;
+        this.positions = positions;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+
+    public int docId(int i) {
+        return docIds[i];
+    }
+
+    public int[] docIds() {
+        return docIds;
+    }
+
+    public int[] positions(int i) {
+        return positions[i];
+    }
+}
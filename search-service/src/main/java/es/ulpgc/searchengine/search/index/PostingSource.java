@@ -0,0 +1,20 @@
+package es.ulpgc.searchengine.search.index;
+
+/** Read access to the inverted index used by the query engines. */
+public interface PostingSource {
+
+    /** Number of books containing the term, used to plan queries before reading postings. */
+    int documentFrequency(String term);
+
+    /** Sorted ids of the books containing the term. */
+    int[] docIds(String term);
+
+    /** Ids of the books containing the term with the number of occurrences in each. */
+    TermFrequencies termFrequencies(String term);
+
+    /** Postings of the term with positions. */
+    PostingList postings(String term);
+
+    /** Sorted ids of every indexed book, the universe for negated queries. */
+    int[] allDocIds();
+}
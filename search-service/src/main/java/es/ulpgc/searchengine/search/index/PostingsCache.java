@@ -0,0 +1,181 @@
+package es.ulpgc.searchengine.search.index;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Decoded posting lists of recently used terms, kept in front of another {@link PostingSource}.
+ * Book ids with frequencies and full postings with positions are cached as separate entries, so
+ * Boolean and ranked queries never decode positions; only phrase queries ask for them.
+ * Entries are evicted least recently used first once their estimated size exceeds the budget.
+ *
+ * <p>Entries are dropped with {@link #invalidateBooks}/{@link #invalidateTerms} when the index
+ * changes. A list read from the source while an invalidation runs is returned but not cached,
+ * since it may predate the change.
+ */
+public final class PostingsCache implements PostingSource {
+
+    /** Prefijos de las claves: frecuencias por libro o postings con posiciones */
+    private static final char FREQS = 'f';
+    private static final char POSITIONS = 'p';
+
+    private final PostingSource source;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Cached> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+    private long epoch;
+    private long hits;
+    private long misses;
+
+    public PostingsCache(PostingSource source, long maxBytes) {
+        this.source = source;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int documentFrequency(String term) {
+        Cached cached = cached(term);
+        return cached != null ? cached.docIds.length : source.documentFrequency(term);
+    }
+
+    @Override
+    public int[] docIds(String term) {
+        return termFrequencies(term).docIds();
+    }
+
+    @Override
+    public TermFrequencies termFrequencies(String term) {
+        return load(FREQS + term, () -> {
+            Cached full = peek(POSITIONS + term);
+            return new Cached(full != null ? frequenciesOf(full.postings) : source.termFrequencies(term), term);
+        }).freqs;
+    }
+
+    @Override
+    public PostingList postings(String term) {
+        return load(POSITIONS + term, () -> new Cached(source.postings(term), term)).postings;
+    }
+
+    @Override
+    public int[] allDocIds() {
+        return source.allDocIds();
+    }
+
+    /** Drops the cached lists of the given terms. */
+    public synchronized void invalidateTerms(Collection<String> terms) {
+        epoch++;
+        for (String term : terms) {
+            for (char kind : new char[] { FREQS, POSITIONS }) {
+                Cached removed = entries.remove(kind + term);
+                if (removed != null) bytes -= removed.size;
+            }
+        }
+    }
+
+    /** Drops the cached lists that contain any of the given books, sorted by id. */
+    public synchronized void invalidateBooks(int[] bookIds) {
+        epoch++;
+        if (bookIds.length == 0) return;
+        Iterator<Cached> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Cached c = it.next();
+            if (DocIdSets.intersect(c.docIds, bookIds).length > 0) {
+                bytes -= c.size;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        epoch++;
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized Map<String,Object> stats() {
+        Map<String,Object> stats = new LinkedHashMap<>();
+        stats.put("terms", entries.size());
+        stats.put("bytes", bytes);
+        stats.put("max_bytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        return stats;
+    }
+
+    /** Loads the entry on a miss; a list read while an invalidation runs is not cached. */
+    private Cached load(String key, Supplier<Cached> loader) {
+        long seen;
+        synchronized (this) {
+            Cached cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+            seen = epoch;
+        }
+
+        Cached loaded = loader.get();
+        synchronized (this) {
+            if (seen == epoch) put(key, loaded);
+        }
+        return loaded;
+    }
+
+    /** Any entry of the term, without counting it as a hit or miss. */
+    private synchronized Cached cached(String term) {
+        Cached cached = entries.get(FREQS + term);
+        return cached != null ? cached : entries.get(POSITIONS + term);
+    }
+
+    private synchronized Cached peek(String key) {
+        return entries.get(key);
+    }
+
+    private static TermFrequencies frequenciesOf(PostingList postings) {
+        int[] freqs = new int[postings.size()];
+        for (int i = 0; i < freqs.length; i++) freqs[i] = postings.positions(i).length;
+        return new TermFrequencies(postings.docIds(), freqs);
+    }
+
+    private void put(String key, Cached entry) {
+        if (entry.size > maxBytes) return;
+
+        Cached previous = entries.put(key, entry);
+        if (previous != null) bytes -= previous.size;
+        bytes += entry.size;
+
+        Iterator<Cached> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().size;
+            it.remove();
+        }
+    }
+
+    /** Either the frequencies or the full postings of a term, with a rough heap footprint. */
+    private static final class Cached {
+        final int[] docIds;
+        final TermFrequencies freqs;
+        final PostingList postings;
+        final long size;
+
+        Cached(TermFrequencies freqs, String term) {
+            this.docIds = freqs.docIds();
+            this.freqs = freqs;
+            this.postings = null;
+            this.size = 96 + 2L * term.length() + 8L * freqs.size();
+        }
+
+        Cached(PostingList postings, String term) {
+            this.docIds = postings.docIds();
+            this.freqs = null;
+            this.postings = postings;
+            long size = 96 + 2L * term.length() + 4L * postings.size();
+            for (int i = 0; i < postings.size(); i++) size += 16 + 4L * postings.positions(i).length;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package es.ulpgc.searchengine.search.index;
+
+/**
+ * Decoder for the binary positions written by the indexing service: the number of positions
+ * followed by the gaps between consecutive positions, each as a variable-byte integer
+ * (7 data bits per byte, high bit set on every byte except the last).
+ */
+public final class PostingsCodec {
+
+    private PostingsCodec() {}
+
+    /** Number of positions in an encoded list, read without decoding the gaps. */
+    public static int count(byte[] encoded) {
+        int value = 0;
+        int shift = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            byte b = encoded[i];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+            shift += 7;
+        }
+        return value;
+    }
+
+    public static int[] decode(byte[] encoded) {
+        int off = 0;
+        int n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = encoded[off++];
+            n |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        int[] positions = new int[n];
+        int prev = 0;
+        for (int i = 0; i < n; i++) {
+            int gap = 0;
+            shift = 0;
+            do {
+                b = encoded[off++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            prev += gap;
+            positions[i] = prev;
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,44 @@
+package es.ulpgc.searchengine.search.index;
+
+/** Sorted ids of the books containing a term and the term's frequency in each of them. */
+public final class TermFrequencies {
+
+    private final int[] docIds;
+    private final int[] freqs;
+    private final int maxFreq;
+
+    public TermFrequencies(int[] docIds, int[] freqs) {
+        this.docIds = docIds;
+        this.freqs = freqs;
+        int max = 0;
+        for (int f : freqs) max = Math.max(max, f);
+        this.maxFreq = max;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+
+    public int docId(int i) {
+        return docIds[i];
+    }
+
+    public int[] docIds() {
+        return docIds;
+    }
+
+    public int freq(int i) {
+        return freqs[i];
+    }
+
+    public int maxFreq() {
+        return maxFreq;
+    }
+
+    /** Highest frequency among postings {@code from} (inclusive) to {@code to} (exclusive). */
+    public int maxFreq(int from, int to) {
+        int max = 0;
+        for (int i = from; i < to; i++) max = Math.max(max, freqs[i]);
+        return max;
+    }
+}
@@ -0,0 +1,54 @@
+package es.ulpgc.searchengine.search.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits query text into index terms using the same rules as the indexing service:
+ * lowercase, letters a-z plus áéíóúüñ, and only words longer than two characters.
+ */
+public final class TermNormalizer {
+
+    private static final int MIN_TERM_LENGTH = 3;
+
+    private TermNormalizer() {}
+
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        for (String token : tokens(text)) {
+            if (isIndexed(token)) terms.add(token);
+        }
+        return terms;
+    }
+
+    /**
+     * Every word of the text in order, including the short ones the index skips, so that
+     * a word's position in this list matches the position offsets stored by the indexer.
+     */
+    public static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean letter = i < lower.length() && isTermChar(lower.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    public static boolean isIndexed(String token) {
+        return token.length() >= MIN_TERM_LENGTH;
+    }
+
+    static boolean isTermChar(char c) {
+        return (c >= 'a' && c <= 'z')
+                || c == 'á' || c == 'é' || c == 'í' || c == 'ó' || c == 'ú' || c == 'ü' || c == 'ñ';
+    }
+}
@@ -0,0 +1,31 @@
+package es.ulpgc.searchengine.search.index;
+
+/** Ranked book ids with their scores, best first. */
+public final class TopDocs {
+
+    public static final TopDocs EMPTY = new TopDocs(new int[0], new float[0]);
+
+    private final int[] docIds;
+    private final float[] scores;
+
+    public TopDocs(int[] docIds, float[] scores) {
+        this.docIds = docIds;
+        this.scores = scores;
+    }
+
+    public int size() {
+        return docIds.length;
+    }
+
+    public int docId(int i) {
+        return docIds[i];
+    }
+
+    public int[] docIds() {
+        return docIds;
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+}
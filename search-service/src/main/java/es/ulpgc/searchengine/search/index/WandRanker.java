@@ -0,0 +1,171 @@
+package es.ulpgc.searchengine.search.index;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * Top-k BM25 retrieval for disjunctive queries using WAND with block-max bounds.
+ *
+ * <p>Each term has an upper bound on the score it can add to any book. Cursors are kept ordered
+ * by their current book, and the pivot is the first book where the summed bounds of the cursors
+ * up to it can beat the current k-th best score; every book before the pivot is skipped without
+ * being scored. Postings are also split into blocks of {@value #BLOCK_SIZE} with a bound per block,
+ * so a pivot whose blocks cannot reach the threshold is skipped as well.
+ */
+public final class WandRanker {
+
+    static final int BLOCK_SIZE = 64;
+
+    private WandRanker() {}
+
+    /**
+     * @param accept books allowed in the result (metadata filters); skipped books are never scored
+     */
+    public static TopDocs topK(List<TermFrequencies> terms, Bm25 bm25, int k, IntPredicate accept) {
+        if (k <= 0) return TopDocs.EMPTY;
+
+        Cursor[] cursors = new Cursor[terms.size()];
+        int n = 0;
+        for (TermFrequencies tf : terms) {
+            if (tf.size() > 0) cursors[n++] = new Cursor(tf, bm25);
+        }
+
+        PriorityQueue<Scored> heap = new PriorityQueue<>(k + 1);
+        double threshold = -1;
+
+        while (n > 0) {
+            sortByDoc(cursors, n);
+
+            int pivot = -1;
+            double bound = 0;
+            for (int i = 0; i < n; i++) {
+                bound += cursors[i].upperBound;
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) break;
+
+            int pivotDoc = cursors[pivot].doc();
+            if (cursors[0].doc() != pivotDoc) {
+                // Books before the pivot cannot enter the top k: move a lagging cursor up to it.
+                cursors[0].advanceTo(pivotDoc);
+                if (cursors[0].exhausted()) cursors[0] = cursors[--n];
+                continue;
+            }
+
+            int last = pivot;
+            while (last + 1 < n && cursors[last + 1].doc() == pivotDoc) last++;
+
+            double blockBound = 0;
+            for (int i = 0; i <= last; i++) blockBound += cursors[i].blockUpperBound();
+
+            if (blockBound > threshold && accept.test(pivotDoc)) {
+                double score = 0;
+                for (int i = 0; i <= last; i++) score += cursors[i].score();
+
+                if (heap.size() < k) {
+                    heap.add(new Scored(pivotDoc, score));
+                } else if (score > threshold) {
+                    heap.poll();
+                    heap.add(new Scored(pivotDoc, score));
+                }
+                if (heap.size() == k) threshold = heap.peek().score;
+            }
+
+            for (int i = last; i >= 0; i--) {
+                cursors[i].next();
+                if (cursors[i].exhausted()) cursors[i] = cursors[--n];
+            }
+        }
+
+        int size = heap.size();
+        int[] ids = new int[size];
+        float[] scores = new float[size];
+        for (int i = size - 1; i >= 0; i--) {
+            Scored s = heap.poll();
+            ids[i] = s.doc;
+            scores[i] = (float) s.score;
+        }
+        return new TopDocs(ids, scores);
+    }
+
+    private static void sortByDoc(Cursor[] cursors, int n) {
+        for (int i = 1; i < n; i++) {
+            Cursor c = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].doc() > c.doc()) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = c;
+        }
+    }
+
+    private static final class Cursor {
+        final TermFrequencies postings;
+        final Bm25 bm25;
+        final double idf;
+        final double upperBound;
+        final double[] blockBounds;
+        int pos;
+
+        Cursor(TermFrequencies postings, Bm25 bm25) {
+            this.postings = postings;
+            this.bm25 = bm25;
+            this.idf = bm25.idf(postings.size());
+            this.upperBound = bm25.upperBound(idf, postings.maxFreq());
+            this.blockBounds = new double[(postings.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+            Arrays.fill(blockBounds, -1);
+        }
+
+        int doc() {
+            return postings.docId(pos);
+        }
+
+        boolean exhausted() {
+            return pos >= postings.size();
+        }
+
+        void next() {
+            pos++;
+        }
+
+        void advanceTo(int target) {
+            pos = DocIdSets.seek(postings.docIds(), pos, target);
+        }
+
+        double score() {
+            return bm25.score(idf, postings.freq(pos), postings.docId(pos));
+        }
+
+        double blockUpperBound() {
+            int block = pos / BLOCK_SIZE;
+            if (blockBounds[block] < 0) {
+                int from = block * BLOCK_SIZE;
+                int to = Math.min(postings.size(), from + BLOCK_SIZE);
+                blockBounds[block] = bm25.upperBound(idf, postings.maxFreq(from, to));
+            }
+            return blockBounds[block];
+        }
+    }
+
+    private static final class Scored implements Comparable<Scored> {
+        final int doc;
+        final double score;
+
+        Scored(int doc, double score) {
+            this.doc = doc;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Scored o) {
+            int c = Double.compare(score, o.score);
+            return c != 0 ? c : Integer.compare(o.doc, doc);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package es.ulpgc.searchengine.search.metadata;
+
+import es.ulpgc.searchengine.search.index.CollectionStats;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+
+/**
+ * Book metadata held in memory as one array per column. Books are addressed by a dense doc id,
+ * their position in ascending book id order, and language, year and author words have a bitmap
+ * of doc ids each, so metadata filters are bitmap intersections instead of per-row comparisons.
+ */
+public final class MetadataStore {
+
+    /** Year of the books whose year is unknown. */
+    public static final int NO_YEAR = Integer.MIN_VALUE;
+
+    private final int[] bookIds;
+    private final String[] titles;
+    private final String[] authors;
+    private final String[] languages;
+    private final int[] years;
+    private final int[] wordCounts;
+    private final long[] generations;
+    private final long maxGeneration;
+
+    private final String[] lowerAuthors;
+    private final Map<String, RoaringBitmap> byLanguage = new HashMap<>();
+    private final TreeMap<Integer, RoaringBitmap> byYear = new TreeMap<>();
+    private final Map<String, RoaringBitmap> byAuthorWord = new HashMap<>();
+
+    /** Columns of the same length, ordered by ascending book id. */
+    public MetadataStore(int[] bookIds, String[] titles, String[] authors, String[] languages,
+                         int[] years, int[] wordCounts, long[] generations) {
+        this.bookIds = bookIds;
+        this.titles = titles;
+        this.authors = authors;
+        this.languages = languages;
+        this.years = years;
+        this.wordCounts = wordCounts;
+        this.generations = generations;
+        this.lowerAuthors = new String[bookIds.length];
+
+        long max = 0;
+        for (long g : generations) max = Math.max(max, g);
+        this.maxGeneration = max;
+
+        for (int doc = 0; doc < bookIds.length; doc++) {
+            if (languages[doc] != null)
+                byLanguage.computeIfAbsent(lower(languages[doc]), k -> new RoaringBitmap()).add(doc);
+            if (years[doc] != NO_YEAR)
+                byYear.computeIfAbsent(years[doc], k -> new RoaringBitmap()).add(doc);
+            if (authors[doc] != null) {
+                lowerAuthors[doc] = lower(authors[doc]);
+                for (String word : words(lowerAuthors[doc]))
+                    byAuthorWord.computeIfAbsent(word, k -> new RoaringBitmap()).add(doc);
+            }
+        }
+        for (RoaringBitmap b : byLanguage.values()) b.runOptimize();
+        for (RoaringBitmap b : byYear.values()) b.runOptimize();
+        for (RoaringBitmap b : byAuthorWord.values()) b.runOptimize();
+    }
+
+    public int size() {
+        return bookIds.length;
+    }
+
+    /** Highest index generation among the books, see {@link #merge}. */
+    public long maxGeneration() {
+        return maxGeneration;
+    }
+
+    /** Ids of every book in the store, ascending. */
+    public int[] bookIds() {
+        return bookIds.clone();
+    }
+
+    /**
+     * A new store with the books of {@code changes} added, or replacing the rows of the same
+     * book id. Bitmaps are rebuilt in memory; nothing is read again from the datamart.
+     */
+    public MetadataStore merge(MetadataStore changes) {
+        if (changes.size() == 0) return this;
+        int capacity = bookIds.length + changes.bookIds.length;
+        int[] ids = new int[capacity];
+        String[] t = new String[capacity];
+        String[] a = new String[capacity];
+        String[] l = new String[capacity];
+        int[] y = new int[capacity];
+        int[] w = new int[capacity];
+        long[] g = new long[capacity];
+
+        int i = 0, j = 0, n = 0;
+        while (i < bookIds.length || j < changes.bookIds.length) {
+            MetadataStore from;
+            int doc;
+            if (j == changes.bookIds.length || (i < bookIds.length && bookIds[i] < changes.bookIds[j])) {
+                from = this;
+                doc = i++;
+            } else {
+                if (i < bookIds.length && bookIds[i] == changes.bookIds[j]) i++;
+                from = changes;
+                doc = j++;
+            }
+            ids[n] = from.bookIds[doc];
+            t[n] = from.titles[doc];
+            a[n] = from.authors[doc];
+            l[n] = from.languages[doc];
+            y[n] = from.years[doc];
+            w[n] = from.wordCounts[doc];
+            g[n] = from.generations[doc];
+            n++;
+        }
+        return new MetadataStore(Arrays.copyOf(ids, n), Arrays.copyOf(t, n), Arrays.copyOf(a, n),
+                Arrays.copyOf(l, n), Arrays.copyOf(y, n), Arrays.copyOf(w, n), Arrays.copyOf(g, n));
+    }
+
+    /** Dense doc id of the book, or -1 when it is not in the store. */
+    public int doc(int bookId) {
+        int i = Arrays.binarySearch(bookIds, bookId);
+        return i < 0 ? -1 : i;
+    }
+
+    public CollectionStats collectionStats() {
+        return new CollectionStats(bookIds, wordCounts);
+    }
+
+    /**
+     * Books matching every given filter: author contains the text, language equals it and year
+     * equals it, all case-insensitive. Returns null when no filter is given.
+     */
+    public RoaringBitmap filter(String author, String language, Integer year) {
+        RoaringBitmap result = null;
+        if (language != null && !language.isBlank())
+            result = and(result, byLanguage.getOrDefault(lower(language), new RoaringBitmap()));
+        if (year != null)
+            result = and(result, byYear.getOrDefault(year, new RoaringBitmap()));
+        if (author != null && !author.isBlank() && (result == null || !result.isEmpty()))
+            result = authorContains(lower(author), result);
+        return result;
+    }
+
+    /** Books published between the two years, both included. */
+    public RoaringBitmap yearRange(int startYear, int endYear) {
+        if (startYear > endYear) return new RoaringBitmap();
+        return RoaringBitmap.or(byYear.subMap(startYear, true, endYear, true).values().iterator());
+    }
+
+    /** Book ids of the docs of the bitmap, ascending. */
+    public int[] bookIds(RoaringBitmap docs) {
+        int[] out = new int[docs.getCardinality()];
+        int n = 0;
+        for (IntIterator it = docs.getIntIterator(); it.hasNext(); ) {
+            out[n++] = bookIds[it.next()];
+        }
+        return out;
+    }
+
+    /** The sorted book ids that belong to docs of the bitmap, walking both in order. */
+    public int[] retain(int[] sortedBookIds, RoaringBitmap docs) {
+        int[] out = new int[Math.min(sortedBookIds.length, docs.getCardinality())];
+        int n = 0;
+        int doc = 0;
+        for (int id : sortedBookIds) {
+            if (n == out.length) break;
+            while (doc < bookIds.length && bookIds[doc] < id) doc++;
+            if (doc == bookIds.length) break;
+            if (bookIds[doc] == id && docs.contains(doc)) out[n++] = id;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /** The requested metadata fields of a book, in request order; other names are ignored. */
+    public Map<String,Object> row(int doc, Collection<String> fields) {
+        Map<String,Object> row = new LinkedHashMap<>();
+        for (String f : fields) {
+            switch (f) {
+                case "book_id" -> row.put(f, bookIds[doc]);
+                case "title" -> row.put(f, titles[doc]);
+                case "author" -> row.put(f, authors[doc]);
+                case "language" -> row.put(f, languages[doc]);
+                case "year" -> row.put(f, years[doc] == NO_YEAR ? null : years[doc]);
+                case "word_count" -> row.put(f, wordCounts[doc]);
+                default -> { }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Every word of the text is part of some author word, so the union of the author words
+     * containing it narrows the candidates; the full text is then checked on those alone.
+     */
+    private RoaringBitmap authorContains(String text, RoaringBitmap within) {
+        RoaringBitmap candidates = within;
+        for (String word : new LinkedHashSet<>(words(text))) {
+            List<RoaringBitmap> containing = new ArrayList<>();
+            for (Map.Entry<String, RoaringBitmap> e : byAuthorWord.entrySet()) {
+                if (e.getKey().contains(word)) containing.add(e.getValue());
+            }
+            candidates = and(candidates, RoaringBitmap.or(containing.iterator()));
+            if (candidates.isEmpty()) return candidates;
+        }
+
+        RoaringBitmap matches = new RoaringBitmap();
+        if (candidates == null) {
+            for (int doc = 0; doc < lowerAuthors.length; doc++) {
+                if (lowerAuthors[doc] != null && lowerAuthors[doc].contains(text)) matches.add(doc);
+            }
+        } else {
+            candidates.forEach((int doc) -> {
+                if (lowerAuthors[doc] != null && lowerAuthors[doc].contains(text)) matches.add(doc);
+            });
+        }
+        return matches;
+    }
+
+    private static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        return a == null ? b.clone() : RoaringBitmap.and(a, b);
+    }
+
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) start = i;
+            else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static String lower(String s) {
+        return s.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,123 @@
+package es.ulpgc.searchengine.search.query;
+
+import es.ulpgc.searchengine.search.index.DocIdSets;
+import es.ulpgc.searchengine.search.index.PhraseMatcher;
+import es.ulpgc.searchengine.search.index.PostingList;
+import es.ulpgc.searchengine.search.index.PostingSource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a {@link QueryNode} tree over sorted posting lists.
+ *
+ * <p>AND operands are evaluated cheapest first, using document frequencies, so the running
+ * result only shrinks and the evaluation stops as soon as it becomes empty. Negated operands
+ * of an AND are subtracted from the result instead of being expanded against every book.
+ * One evaluator serves a single query; it remembers the postings it has already read.
+ */
+public final class BooleanQueryEvaluator {
+
+    private final PostingSource source;
+    private final Map<String, Integer> frequencies = new HashMap<>();
+    private final Map<String, int[]> docIds = new HashMap<>();
+    private int[] universe;
+
+    public BooleanQueryEvaluator(PostingSource source) {
+        this.source = source;
+    }
+
+    /** @return sorted ids of the matching books */
+    public int[] evaluate(QueryNode node) {
+        if (node == null) return DocIdSets.EMPTY;
+        if (node instanceof QueryNode.Term t) return docIds(t.term);
+        if (node instanceof QueryNode.Phrase p) return phrase(p);
+        if (node instanceof QueryNode.Or o) return or(o);
+        if (node instanceof QueryNode.And a) return and(a);
+        if (node instanceof QueryNode.Not n) return DocIdSets.difference(universe(), evaluate(n.child));
+        throw new IllegalArgumentException("Unknown query node " + node);
+    }
+
+    private int[] and(QueryNode.And node) {
+        List<QueryNode> positive = new ArrayList<>();
+        List<QueryNode> negative = new ArrayList<>();
+        for (QueryNode child : node.children) {
+            if (child instanceof QueryNode.Not n) negative.add(n.child);
+            else positive.add(child);
+        }
+        positive.sort(Comparator.comparingLong(this::cost));
+        negative.sort(Comparator.comparingLong(this::cost));
+
+        int[] result = positive.isEmpty() ? universe() : evaluate(positive.get(0));
+        for (int i = 1; i < positive.size() && result.length > 0; i++) {
+            result = DocIdSets.intersect(result, evaluate(positive.get(i)));
+        }
+        for (int i = 0; i < negative.size() && result.length > 0; i++) {
+            result = DocIdSets.difference(result, evaluate(negative.get(i)));
+        }
+        return result;
+    }
+
+    private int[] or(QueryNode.Or node) {
+        int[] result = DocIdSets.EMPTY;
+        for (QueryNode child : node.children) {
+            result = DocIdSets.union(result, evaluate(child));
+        }
+        return result;
+    }
+
+    private int[] phrase(QueryNode.Phrase node) {
+        PostingList[] postings = new PostingList[node.terms.size()];
+        for (int i = 0; i < postings.length; i++) {
+            if (frequency(node.terms.get(i)) == 0) return DocIdSets.EMPTY;
+        }
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = source.postings(node.terms.get(i));
+        }
+        return PhraseMatcher.match(postings, node.offsets);
+    }
+
+    /** Upper bound on the number of books a node can match. */
+    private long cost(QueryNode node) {
+        if (node instanceof QueryNode.Term t) return frequency(t.term);
+        if (node instanceof QueryNode.Phrase p) {
+            long min = Long.MAX_VALUE;
+            for (String term : p.terms) min = Math.min(min, frequency(term));
+            return min;
+        }
+        if (node instanceof QueryNode.And a) {
+            long min = Long.MAX_VALUE;
+            for (QueryNode child : a.children) {
+                if (!(child instanceof QueryNode.Not)) min = Math.min(min, cost(child));
+            }
+            return min;
+        }
+        if (node instanceof QueryNode.Or o) {
+            long sum = 0;
+            for (QueryNode child : o.children) {
+                long c = cost(child);
+                if (sum > Long.MAX_VALUE - c) return Long.MAX_VALUE;   // NOT cuesta Long.MAX_VALUE: sin desbordar
+                sum += c;
+            }
+            return sum;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private int frequency(String term) {
+        return frequencies.computeIfAbsent(term, source::documentFrequency);
+    }
+
+    private int[] docIds(String term) {
+        if (frequency(term) == 0) return DocIdSets.EMPTY;
+        return docIds.computeIfAbsent(term, source::docIds);
+    }
+
+    private int[] universe() {
+        if (universe == null) universe = source.allDocIds();
+        return universe;
+    }
+}
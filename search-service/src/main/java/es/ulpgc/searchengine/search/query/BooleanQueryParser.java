@@ -0,0 +1,163 @@
+package es.ulpgc.searchengine.search.query;
+
+import es.ulpgc.searchengine.search.index.TermNormalizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses boolean queries such as {@code love AND (war OR peace) NOT "art of war"}.
+ *
+ * <p>Operators are the words AND, OR and NOT in any case, plus {@code &&}, {@code ||} and a
+ * leading {@code -} or {@code !}. Adjacent operands are joined with AND, quoted text is a phrase,
+ * and words too short to be indexed are dropped. NOT binds tighter than AND, which binds tighter
+ * than OR.
+ */
+public final class BooleanQueryParser {
+
+    private enum Kind { WORD, PHRASE, AND, OR, NOT, LPAREN, RPAREN }
+
+    private static final class Token {
+        final Kind kind;
+        final String text;
+
+        Token(Kind kind, String text) {
+            this.kind = kind;
+            this.text = text;
+        }
+    }
+
+    private final List<Token> tokens;
+    private int pos;
+
+    private BooleanQueryParser(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    /** @return the query tree, or null when the query has no indexable words */
+    public static QueryNode parse(String query) {
+        BooleanQueryParser parser = new BooleanQueryParser(lex(query));
+        QueryNode node = parser.parseOr();
+        if (parser.pos < parser.tokens.size())
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.pos).text + "' in query");
+        return node;
+    }
+
+    /** A single term, or a phrase when the text holds several indexable words; null if it holds none. */
+    public static QueryNode phrase(String text) {
+        List<String> words = TermNormalizer.tokens(text);
+        List<String> terms = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            if (TermNormalizer.isIndexed(words.get(i))) {
+                terms.add(words.get(i));
+                offsets.add(i);
+            }
+        }
+
+        if (terms.isEmpty()) return null;
+        if (terms.size() == 1) return new QueryNode.Term(terms.get(0));
+        return new QueryNode.Phrase(terms, offsets.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private QueryNode parseOr() {
+        List<QueryNode> children = new ArrayList<>();
+        add(children, parseAnd());
+        while (peek(Kind.OR)) {
+            pos++;
+            add(children, parseAnd());
+        }
+        if (children.isEmpty()) return null;
+        return children.size() == 1 ? children.get(0) : new QueryNode.Or(children);
+    }
+
+    private QueryNode parseAnd() {
+        List<QueryNode> children = new ArrayList<>();
+        add(children, parseUnary());
+        while (pos < tokens.size() && !peek(Kind.OR) && !peek(Kind.RPAREN)) {
+            if (peek(Kind.AND)) pos++;
+            add(children, parseUnary());
+        }
+        if (children.isEmpty()) return null;
+        return children.size() == 1 ? children.get(0) : new QueryNode.And(children);
+    }
+
+    private QueryNode parseUnary() {
+        if (peek(Kind.NOT)) {
+            pos++;
+            QueryNode child = parseUnary();
+            return child == null ? null : new QueryNode.Not(child);
+        }
+        return parsePrimary();
+    }
+
+    private QueryNode parsePrimary() {
+        if (pos >= tokens.size())
+            throw new IllegalArgumentException("Query ends where an operand was expected");
+
+        Token t = tokens.get(pos++);
+        switch (t.kind) {
+            case LPAREN:
+                QueryNode inner = parseOr();
+                if (!peek(Kind.RPAREN)) throw new IllegalArgumentException("Missing ')' in query");
+                pos++;
+                return inner;
+            case WORD:
+            case PHRASE:
+                return phrase(t.text);
+            default:
+                throw new IllegalArgumentException("Unexpected '" + t.text + "' in query");
+        }
+    }
+
+    private boolean peek(Kind kind) {
+        return pos < tokens.size() && tokens.get(pos).kind == kind;
+    }
+
+    private static void add(List<QueryNode> children, QueryNode node) {
+        if (node != null) children.add(node);
+    }
+
+    private static List<Token> lex(String query) {
+        List<Token> out = new ArrayList<>();
+        int i = 0;
+        int n = query.length();
+
+        while (i < n) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                out.add(new Token(Kind.LPAREN, "("));
+                i++;
+            } else if (c == ')') {
+                out.add(new Token(Kind.RPAREN, ")"));
+                i++;
+            } else if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) end = n;
+                out.add(new Token(Kind.PHRASE, query.substring(i + 1, end)));
+                i = end + 1;
+            } else if (query.startsWith("&&", i)) {
+                out.add(new Token(Kind.AND, "&&"));
+                i += 2;
+            } else if (query.startsWith("||", i)) {
+                out.add(new Token(Kind.OR, "||"));
+                i += 2;
+            } else if ((c == '-' || c == '!') && i + 1 < n && !Character.isWhitespace(query.charAt(i + 1))) {
+                out.add(new Token(Kind.NOT, String.valueOf(c)));
+                i++;
+            } else {
+                int start = i;
+                while (i < n && !Character.isWhitespace(query.charAt(i))
+                        && "()\"".indexOf(query.charAt(i)) < 0) i++;
+                String word = query.substring(start, i);
+                if (word.equalsIgnoreCase("and")) out.add(new Token(Kind.AND, word));
+                else if (word.equalsIgnoreCase("or")) out.add(new Token(Kind.OR, word));
+                else if (word.equalsIgnoreCase("not")) out.add(new Token(Kind.NOT, word));
+                else out.add(new Token(Kind.WORD, word));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,77 @@
+package es.ulpgc.searchengine.search.query;
+
+import java.util.List;
+
+/** Parsed boolean query tree. */
+public abstract class QueryNode {
+
+    private QueryNode() {}
+
+    public static final class Term extends QueryNode {
+        public final String term;
+
+        public Term(String term) {
+            this.term = term;
+        }
+
+        @Override
+        public String toString() {
+            return term;
+        }
+    }
+
+    /** Words that must appear at the given offsets from each other. */
+    public static final class Phrase extends QueryNode {
+        public final List<String> terms;
+        public final int[] offsets;
+
+        public Phrase(List<String> terms, int[] offsets) {
+            this.terms = terms;
+            this.offsets = offsets;
+        }
+
+        @Override
+        public String toString() {
+            return "\"" + String.join(" ", terms) + "\"";
+        }
+    }
+
+    public static final class And extends QueryNode {
+        public final List<QueryNode> children;
+
+        public And(List<QueryNode> children) {
+            this.children = children;
+        }
+
+        @Override
+        public String toString() {
+            return "AND" + children;
+        }
+    }
+
+    public static final class Or extends QueryNode {
+        public final List<QueryNode> children;
+
+        public Or(List<QueryNode> children) {
+            this.children = children;
+        }
+
+        @Override
+        public String toString() {
+            return "OR" + children;
+        }
+    }
+
+    public static final class Not extends QueryNode {
+        public final QueryNode child;
+
+        public Not(QueryNode child) {
+            this.child = child;
+        }
+
+        @Override
+        public String toString() {
+            return "NOT(" + child + ")";
+        }
+    }
+}
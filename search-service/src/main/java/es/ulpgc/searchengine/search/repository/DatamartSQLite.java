@@ -1,18 +1,45 @@
 package es.ulpgc.searchengine.search.repository;
 
+import es.ulpgc.searchengine.search.index.PostingList;
+import es.ulpgc.searchengine.search.index.PostingSource;
+import es.ulpgc.searchengine.search.index.PostingsCodec;
+import es.ulpgc.searchengine.search.index.TermFrequencies;
+import es.ulpgc.searchengine.search.metadata.MetadataStore;
+import es.ulpgc.searchengine.search.repository.SqliteConnectionPool.PooledConnection;
+
 import java.sql.*;
 import java.util.*;
 
-public class DatamartSQLite {
+public class DatamartSQLite implements PostingSource {
+
+    /** Columns of the books table that can be projected into search results. */
+    public static final Set<String> BOOK_FIELDS =
+            Set.of("book_id", "title", "author", "language", "year", "word_count", "content");
+
+    /** Resolves the term bound to the statement's parameter to its id, once per statement. */
+    private static final String TERM_ID = "(SELECT term_id FROM terms WHERE term = ?)";
+
+    /** Max ids bound per IN (...) clause, well under SQLite's variable limit. */
+    private static final int IN_CHUNK = 500;
+
+    /** Read connections kept open when the caller does not choose a pool size. */
+    public static final int DEFAULT_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors());
 
     private final String dbPath;
+    private final SqliteConnectionPool pool;
 
     public DatamartSQLite(String dbPath) {
+        this(dbPath, DEFAULT_POOL_SIZE);
+    }
+
+    /** Searches only read, so they share a pool of read-only connections. */
+    public DatamartSQLite(String dbPath, int poolSize) {
         this.dbPath = dbPath;
+        this.pool = new SqliteConnectionPool(dbPath, poolSize, true);
     }
 
     public void initSchema() {
-        try (Connection conn = connect();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
              Statement st = conn.createStatement()) {
 
             st.execute("""
@@ -22,16 +49,48 @@ public class DatamartSQLite {
                     author TEXT,
                     language TEXT,
                     year INTEGER,
-                    content TEXT
+                    content TEXT,
+                    word_count INTEGER DEFAULT 0,
+                    generation INTEGER DEFAULT 0,
+                    content_hash TEXT
                 );
             """);
+            addColumnIfMissing(conn, "books", "word_count", "INTEGER DEFAULT 0");
+            addColumnIfMissing(conn, "books", "generation", "INTEGER DEFAULT 0");
+            addColumnIfMissing(conn, "books", "content_hash", "TEXT");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_books_generation ON books(generation)");
 
             st.execute("""
-                CREATE TABLE IF NOT EXISTS inverted_index (
-                    term TEXT,
+                CREATE TABLE IF NOT EXISTS terms (
+                    term_id INTEGER PRIMARY KEY,
+                    term TEXT NOT NULL UNIQUE,
+                    df INTEGER NOT NULL DEFAULT 0,
+                    cf INTEGER NOT NULL DEFAULT 0
+                );
+            """);
+            st.execute("""
+                CREATE TABLE IF NOT EXISTS postings (
+                    term_id INTEGER,
                     book_id INTEGER,
-                    positions TEXT,
-                    PRIMARY KEY(term, book_id)
+                    positions BLOB,
+                    PRIMARY KEY(term_id, book_id)
+                ) WITHOUT ROWID;
+            """);
+            st.execute("CREATE INDEX IF NOT EXISTS idx_postings_book ON postings(book_id)");
+
+            st.execute("""
+                CREATE TABLE IF NOT EXISTS book_content (
+                    book_id INTEGER,
+                    chunk INTEGER,
+                    text TEXT,
+                    PRIMARY KEY(book_id, chunk)
+                ) WITHOUT ROWID;
+            """);
+
+            st.execute("""
+                CREATE TABLE IF NOT EXISTS index_meta (
+                    key TEXT PRIMARY KEY,
+                    value INTEGER
                 );
             """);
 
@@ -41,14 +100,26 @@ public class DatamartSQLite {
         }
     }
 
+    /** Adds a column to tables created by older versions of the schema. */
+    private void addColumnIfMissing(Connection conn, String table, String column, String type) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (rs.getString("name").equalsIgnoreCase(column)) return;
+            }
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+    }
+
     public List<Map<String,Object>> allBooks() {
         List<Map<String,Object>> list = new ArrayList<>();
 
-        String sql = "SELECT book_id, title, author, language, year, content FROM books";
+        String sql = "SELECT book_id, title, author, language, year FROM books";
 
-        try (Connection conn = connect();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+        try (PooledConnection conn = pool.acquire();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
 
             while (rs.next()) {
                 Map<String,Object> row = new HashMap<>();
@@ -57,7 +128,6 @@ public class DatamartSQLite {
                 row.put("author", rs.getString("author"));
                 row.put("language", rs.getString("language"));
                 row.put("year", rs.getInt("year"));
-                row.put("content", rs.getString("content"));
                 list.add(row);
             }
 
@@ -68,45 +138,302 @@ public class DatamartSQLite {
         return list;
     }
 
-    public List<Map<String,Object>> queryByYearRange(int startYear, int endYear) {
-        List<Map<String,Object>> list = new ArrayList<>();
+    /** Read from the term dictionary, without touching the postings. */
+    @Override
+    public int documentFrequency(String term) {
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement ps = conn.prepare("SELECT df FROM terms WHERE term = ?");
+            ps.setString(1, term);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error in documentFrequency: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    @Override
+    public int[] docIds(String term) {
+        return queryIds("SELECT book_id FROM postings WHERE term_id = " + TERM_ID + " ORDER BY book_id", term);
+    }
+
+    @Override
+    public int[] allDocIds() {
+        return queryIds("SELECT book_id FROM books ORDER BY book_id", null);
+    }
+
+    private int[] queryIds(String sql, String term) {
+        int[] ids = new int[16];
+        int n = 0;
+
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement ps = conn.prepare(sql);
+            if (term != null) ps.setString(1, term);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+                    ids[n++] = rs.getInt(1);
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error reading book ids: " + e.getMessage());
+        }
+
+        return Arrays.copyOf(ids, n);
+    }
+
+    @Override
+    public TermFrequencies termFrequencies(String term) {
+        String sql = "SELECT book_id, positions FROM postings WHERE term_id = " + TERM_ID + " ORDER BY book_id";
+        int[] ids = new int[16];
+        int[] freqs = new int[16];
+        int n = 0;
+
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement ps = conn.prepare(sql);
+            ps.setString(1, term);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (n == ids.length) {
+                        ids = Arrays.copyOf(ids, n * 2);
+                        freqs = Arrays.copyOf(freqs, n * 2);
+                    }
+                    ids[n] = rs.getInt(1);
+                    freqs[n] = PostingsCodec.count(rs.getBytes(2));
+                    n++;
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error in termFrequencies: " + e.getMessage());
+        }
+
+        return new TermFrequencies(Arrays.copyOf(ids, n), Arrays.copyOf(freqs, n));
+    }
+
+    /** Generation counter the indexer increments on every write; 0 before the first one. */
+    public long indexGeneration() {
+        try (PooledConnection conn = pool.acquire();
+             ResultSet rs = conn.prepare("SELECT value FROM index_meta WHERE key = 'generation'").executeQuery()) {
 
+            return rs.next() ? rs.getLong(1) : 0;
+
+        } catch (SQLException e) {
+            System.err.println("Error in indexGeneration: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Counters the indexer keeps in index_meta (books, terms, postings, tokens, sizes and
+     * generation); one read of a handful of rows, whatever the size of the index.
+     */
+    public Map<String, Long> indexStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        try (PooledConnection conn = pool.acquire();
+             ResultSet rs = conn.prepare("SELECT key, value FROM index_meta ORDER BY key").executeQuery()) {
+
+            while (rs.next()) stats.put(rs.getString(1), rs.getLong(2));
+
+        } catch (SQLException e) {
+            System.err.println("Error in indexStats: " + e.getMessage());
+        }
+        stats.remove("stats_version");
+        return stats;
+    }
+
+    /**
+     * Metadata columns of the books written after the given generation (every book for -1),
+     * ordered by book id; content is not read.
+     */
+    public MetadataStore loadMetadata(long afterGeneration) {
         String sql = """
-            SELECT book_id, title, author, language, year, content
+            SELECT book_id, title, author, language, year, word_count, generation
             FROM books
-            WHERE year >= ? AND year <= ?
+            WHERE generation > ?
+            ORDER BY book_id
         """;
+        int[] ids = new int[16];
+        String[] titles = new String[16];
+        String[] authors = new String[16];
+        String[] languages = new String[16];
+        int[] years = new int[16];
+        int[] wordCounts = new int[16];
+        long[] generations = new long[16];
+        int n = 0;
+
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement ps = conn.prepare(sql);
+            ps.setLong(1, afterGeneration);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (n == ids.length) {
+                        ids = Arrays.copyOf(ids, n * 2);
+                        titles = Arrays.copyOf(titles, n * 2);
+                        authors = Arrays.copyOf(authors, n * 2);
+                        languages = Arrays.copyOf(languages, n * 2);
+                        years = Arrays.copyOf(years, n * 2);
+                        wordCounts = Arrays.copyOf(wordCounts, n * 2);
+                        generations = Arrays.copyOf(generations, n * 2);
+                    }
+                    ids[n] = rs.getInt(1);
+                    titles[n] = rs.getString(2);
+                    authors[n] = rs.getString(3);
+                    languages[n] = rs.getString(4);
+                    years[n] = rs.getInt(5);
+                    if (rs.wasNull()) years[n] = MetadataStore.NO_YEAR;
+                    wordCounts[n] = rs.getInt(6);
+                    generations[n] = rs.getLong(7);
+                    n++;
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error in loadMetadata: " + e.getMessage());
+        }
+
+        return new MetadataStore(Arrays.copyOf(ids, n), Arrays.copyOf(titles, n), Arrays.copyOf(authors, n),
+                Arrays.copyOf(languages, n), Arrays.copyOf(years, n), Arrays.copyOf(wordCounts, n),
+                Arrays.copyOf(generations, n));
+    }
+
+    /** Distinct terms with postings in any of the given books. */
+    public Set<String> termsOfBooks(int[] ids) {
+        Set<String> terms = new HashSet<>();
+
+        try (PooledConnection conn = pool.acquire()) {
+            for (int from = 0; from < ids.length; from += IN_CHUNK) {
+                int to = Math.min(ids.length, from + IN_CHUNK);
+                String sql = "SELECT term FROM terms WHERE term_id IN (SELECT term_id FROM postings WHERE book_id IN ("
+                        + placeholders(to - from) + "))";
 
-        try (Connection conn = connect();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+                PreparedStatement ps = conn.prepare(sql);
+                for (int i = from; i < to; i++) ps.setInt(i - from + 1, ids[i]);
 
-            ps.setInt(1, startYear);
-            ps.setInt(2, endYear);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) terms.add(rs.getString(1));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error in termsOfBooks: " + e.getMessage());
+        }
+
+        return terms;
+    }
+
+    /** Postings of the term with the token positions of every book, ordered by book id. */
+    @Override
+    public PostingList postings(String term) {
+        String sql = "SELECT book_id, positions FROM postings WHERE term_id = " + TERM_ID + " ORDER BY book_id";
+        int[] ids = new int[16];
+        int[][] positions = new int[16][];
+        int n = 0;
+
+        try (PooledConnection conn = pool.acquire()) {
+            PreparedStatement ps = conn.prepare(sql);
+            ps.setString(1, term);
 
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    Map<String,Object> row = new HashMap<>();
-                    row.put("book_id", rs.getInt("book_id"));
-                    row.put("title", rs.getString("title"));
-                    row.put("author", rs.getString("author"));
-                    row.put("language", rs.getString("language"));
-                    row.put("year", rs.getInt("year"));
-                    row.put("content", rs.getString("content"));
-                    list.add(row);
+                    if (n == ids.length) {
+                        ids = Arrays.copyOf(ids, n * 2);
+                        positions = Arrays.copyOf(positions, n * 2);
+                    }
+                    ids[n] = rs.getInt(1);
+                    positions[n] = PostingsCodec.decode(rs.getBytes(2));
+                    n++;
                 }
             }
 
         } catch (SQLException e) {
-            System.err.println("Error in queryByYearRange: " + e.getMessage());
+            System.err.println("Error in postings: " + e.getMessage());
         }
 
-        return list;
+        return new PostingList(Arrays.copyOf(ids, n), Arrays.copyOf(positions, n));
+    }
+
+    /**
+     * The requested columns of the given books, keyed by book id. Only the fields listed in
+     * {@link #BOOK_FIELDS} are read, so content is only loaded when it is asked for.
+     */
+    public Map<Integer, Map<String,Object>> booksByIds(int[] ids, Collection<String> fields) {
+        Map<Integer, Map<String,Object>> books = new HashMap<>();
+        List<String> columns = new ArrayList<>();
+        for (String f : fields) {
+            if (BOOK_FIELDS.contains(f) && !f.equals("book_id")) columns.add(f);
+        }
+        String select = columns.isEmpty() ? "book_id" : "book_id, " + String.join(", ", columns);
+
+        try (PooledConnection conn = pool.acquire()) {
+            for (int from = 0; from < ids.length; from += IN_CHUNK) {
+                int to = Math.min(ids.length, from + IN_CHUNK);
+                String sql = "SELECT " + select + " FROM books WHERE book_id IN (" + placeholders(to - from) + ")";
+
+                PreparedStatement ps = conn.prepare(sql);
+                for (int i = from; i < to; i++) ps.setInt(i - from + 1, ids[i]);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Map<String,Object> row = new LinkedHashMap<>();
+                        int id = rs.getInt("book_id");
+                        if (fields.contains("book_id")) row.put("book_id", id);
+                        for (String c : columns) row.put(c, rs.getObject(c));
+                        books.put(id, row);
+                    }
+                }
+            }
+            if (columns.contains("content")) readChunkedContent(conn, books);
+
+        } catch (SQLException e) {
+            System.err.println("Error in booksByIds: " + e.getMessage());
+        }
+
+        return books;
+    }
+
+    /**
+     * Fills in the content of books written since content moved to {@code book_content}, whose
+     * {@code books.content} is null, by joining their chunks in order.
+     */
+    private void readChunkedContent(PooledConnection conn, Map<Integer, Map<String,Object>> books) throws SQLException {
+        int[] ids = books.entrySet().stream()
+                .filter(e -> e.getValue().get("content") == null)
+                .mapToInt(Map.Entry::getKey)
+                .toArray();
+
+        for (int from = 0; from < ids.length; from += IN_CHUNK) {
+            int to = Math.min(ids.length, from + IN_CHUNK);
+            String sql = "SELECT book_id, text FROM book_content WHERE book_id IN (" + placeholders(to - from) + ")"
+                    + " ORDER BY book_id, chunk";
+
+            PreparedStatement ps = conn.prepare(sql);
+            for (int i = from; i < to; i++) ps.setInt(i - from + 1, ids[i]);
+
+            Map<Integer, StringBuilder> contents = new HashMap<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    contents.computeIfAbsent(rs.getInt(1), id -> new StringBuilder()).append(rs.getString(2));
+                }
+            }
+            contents.forEach((id, content) -> books.get(id).put("content", content.toString()));
+        }
+    }
+
+    private static String placeholders(int n) {
+        return String.join(",", Collections.nCopies(n, "?"));
     }
 
     public List<Map<String,Object>> queryRaw(String sql) {
         List<Map<String,Object>> list = new ArrayList<>();
-        try (Connection conn = connect();
-             Statement st = conn.createStatement();
+        try (PooledConnection conn = pool.acquire();
+             Statement st = conn.connection().createStatement();
              ResultSet rs = st.executeQuery(sql)) {
 
             ResultSetMetaData md = rs.getMetaData();
@@ -125,8 +452,4 @@ public class DatamartSQLite {
         }
         return list;
     }
-
-    private Connection connect() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:" + dbPath);
-    }
 }
@@ -0,0 +1,228 @@
+package es.ulpgc.searchengine.search.segment;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One segment file written by the indexing service (see its SegmentWriter for the layout),
+ * mapped read-only. Terms are found by binary search over the mapped dictionary and postings
+ * are decoded straight from the mapping, so opening a segment reads only its footer and its
+ * pages live in the OS page cache, shared with every process that maps the same file.
+ *
+ * <p>A mapping outlives its file: the indexer deletes merged segments, but their disk space is
+ * only freed once they are unmapped. Each segment therefore counts the snapshots that hold it
+ * and is unmapped as soon as the last one lets go, rather than whenever the GC collects it.
+ */
+final class MappedSegment {
+
+    private static final int MAGIC = 0x53454731;
+    private static final int VERSION = 1;
+    private static final int FOOTER_BYTES = 8 + 4 + 8 + 8 + 8 + 4 + 8 + 4;
+    /** sun.misc.Unsafe y su invokeCleaner; null si este JDK no los ofrece y queda en manos del GC */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[Segments] Unmapped segments will be released by the GC: " + e.getMessage());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    final String name;
+    private final ByteBuffer data;
+    private final int docsOffset;
+    private final int docCount;
+    private final int termIndexOffset;
+    private final int termCount;
+    private final AtomicInteger refs = new AtomicInteger();
+
+    private MappedSegment(String name, ByteBuffer data) throws IOException {
+        this.name = name;
+        this.data = data;
+        int footer = data.limit() - FOOTER_BYTES;
+        if (footer < 8 || data.getInt(0) != MAGIC || data.getInt(data.limit() - 4) != MAGIC) {
+            throw new IOException("Not a segment: " + name);
+        }
+        if (data.getInt(4) != VERSION) throw new IOException("Unsupported segment version: " + name);
+        this.docsOffset = (int) data.getLong(footer);
+        this.docCount = data.getInt(footer + 8);
+        this.termIndexOffset = (int) data.getLong(footer + 28);
+        this.termCount = data.getInt(footer + 36);
+    }
+
+    static MappedSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Segment too large to map: " + file);
+            return new MappedSegment(file.getFileName().toString(),
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    void retain() {
+        refs.incrementAndGet();
+    }
+
+    /** Drops a reference; the last one unmaps the file, so nothing may read it afterwards. */
+    void release() {
+        if (refs.decrementAndGet() == 0) unmap();
+    }
+
+    /** Unmaps now; for segments nobody else holds. */
+    void unmap() {
+        if (INVOKE_CLEANER == null) return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, data);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[Segments] Error unmapping " + name + ": " + e.getMessage());
+        }
+    }
+
+    long size() {
+        return data.limit();
+    }
+
+    int docCount() {
+        return docCount;
+    }
+
+    int docId(int doc) {
+        return data.getInt(docsOffset + doc * 8);
+    }
+
+    /** Position of the term in the dictionary, or -1; compares UTF-8 bytes in place. */
+    int find(byte[] term) {
+        int lo = 0, hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = entry(mid);
+            int cmp = compare(entry + 4, data.getInt(entry), term);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    int df(int term) {
+        int entry = entry(term);
+        return data.getInt(entry + 4 + data.getInt(entry));
+    }
+
+    /**
+     * Appends the postings of the term to {@code out}, leaving out the books in {@code dead}
+     * (null for none), which a newer segment holds.
+     */
+    void read(int term, RoaringBitmap dead, Postings out) {
+        int entry = entry(term);
+        int at = entry + 4 + data.getInt(entry);
+        int df = data.getInt(at);
+        int offset = (int) data.getLong(at + 12);
+        out.ensure(df);
+
+        int docId = 0;
+        for (int i = 0; i < df; i++) {
+            int v = 0, shift = 0;
+            byte b;
+            do {
+                b = data.get(offset++);
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            docId += v;
+
+            int count = 0;
+            shift = 0;
+            do {
+                b = data.get(offset++);
+                count |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            boolean live = dead == null || !dead.contains(docId);
+            if (live && out.positions != null) {
+                int[] positions = new int[count];
+                int prev = 0;
+                for (int p = 0; p < count; p++) {
+                    int gap = 0;
+                    shift = 0;
+                    do {
+                        b = data.get(offset++);
+                        gap |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    prev += gap;
+                    positions[p] = prev;
+                }
+                out.positions[out.size] = positions;
+            } else {
+                // salta los huecos: cada uno termina en el primer byte sin el bit alto
+                for (int left = count; left > 0; ) {
+                    if (data.get(offset++) >= 0) left--;
+                }
+            }
+            if (live) {
+                out.docIds[out.size] = docId;
+                out.freqs[out.size] = count;
+                out.size++;
+            }
+        }
+    }
+
+    private int entry(int term) {
+        return (int) data.getLong(termIndexOffset + term * 8);
+    }
+
+    private int compare(int offset, int length, byte[] term) {
+        int n = Math.min(length, term.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Byte.toUnsignedInt(data.get(offset + i)) - Byte.toUnsignedInt(term[i]);
+            if (cmp != 0) return cmp;
+        }
+        return length - term.length;
+    }
+
+    static byte[] utf8(String term) {
+        return term.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Postings gathered from one or more segments; positions only when asked for. */
+    static final class Postings {
+        int size;
+        int[] docIds = new int[16];
+        int[] freqs = new int[16];
+        int[][] positions;
+
+        Postings(boolean withPositions) {
+            if (withPositions) positions = new int[16][];
+        }
+
+        void ensure(int more) {
+            if (size + more <= docIds.length) return;
+            int capacity = Math.max(docIds.length * 2, size + more);
+            docIds = Arrays.copyOf(docIds, capacity);
+            freqs = Arrays.copyOf(freqs, capacity);
+            if (positions != null) positions = Arrays.copyOf(positions, capacity);
+        }
+    }
+}
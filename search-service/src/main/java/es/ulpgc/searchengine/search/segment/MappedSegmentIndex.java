@@ -0,0 +1,259 @@
+package es.ulpgc.searchengine.search.segment;
+
+import es.ulpgc.searchengine.search.index.PostingList;
+import es.ulpgc.searchengine.search.index.PostingSource;
+import es.ulpgc.searchengine.search.index.TermFrequencies;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Postings read from the segment files the indexing service writes with INDEX_BACKEND=segments.
+ * The set of segments comes from their MANIFEST, which the indexer replaces atomically, so
+ * every query sees one consistent set; {@link #refresh()} moves to the newest one, mapping only
+ * the segments that are new. A book indexed more than once is in several segments and only its
+ * copy in the newest one counts.
+ *
+ * <p>Every read holds the snapshot it started with, and a segment is unmapped once no snapshot
+ * holding it is in use, so the space of files the indexer deleted is given back right away.
+ */
+public final class MappedSegmentIndex implements PostingSource {
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final int OPEN_ATTEMPTS = 3;
+    /** Pausa antes de releer el manifiesto, creciente: deja terminar a la fusión que lo cambió */
+    private static final long RETRY_DELAY_MS = 50;
+
+    private final Path dir;
+    private volatile Snapshot snapshot = new Snapshot(-1, new MappedSegment[0], new RoaringBitmap[0], new int[0]);
+    private long refreshes;
+
+    private MappedSegmentIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    /** Maps the segments currently in {@code dir}; an empty index if there are none yet. */
+    public static MappedSegmentIndex open(Path dir) {
+        MappedSegmentIndex index = new MappedSegmentIndex(dir);
+        index.refresh();
+        System.out.printf("[Segments] %d segmentos mapeados de %s (generación %d)%n",
+                index.snapshot.segments.length, dir, index.snapshot.generation);
+        return index;
+    }
+
+    /**
+     * Switches to the segments in the current manifest if it changed; returns whether it did.
+     * A segment may be merged away between reading the manifest and mapping it, in which case
+     * the manifest is read again.
+     */
+    public synchronized boolean refresh() {
+        for (int attempt = 1; ; attempt++) {
+            List<MappedSegment> opened = new ArrayList<>();
+            try {
+                long generation = 0;
+                List<String> names = new ArrayList<>();
+                Path manifest = dir.resolve(MANIFEST);
+                if (Files.exists(manifest)) {
+                    for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                        String[] parts = line.split("\t");
+                        if (parts[0].equals("generation")) generation = Long.parseLong(parts[1]);
+                        else if (parts[0].equals("segment") && parts.length == 4) names.add(parts[1]);
+                    }
+                }
+                Snapshot current = snapshot;
+                if (generation == current.generation) return false;
+
+                Map<String, MappedSegment> mapped = new HashMap<>();
+                for (MappedSegment s : current.segments) mapped.put(s.name, s);
+                MappedSegment[] segments = new MappedSegment[names.size()];
+                for (int i = 0; i < segments.length; i++) {
+                    MappedSegment s = mapped.get(names.get(i));
+                    if (s == null) {
+                        s = MappedSegment.open(dir.resolve(names.get(i)));
+                        opened.add(s);
+                    }
+                    segments[i] = s;
+                }
+                snapshot = Snapshot.of(generation, segments);
+                opened.clear();
+                current.release();   // los segmentos que ya no están se desmapean al acabar sus lecturas
+                refreshes++;
+                return true;
+
+            } catch (NoSuchFileException e) {
+                if (attempt == OPEN_ATTEMPTS) {
+                    System.err.println("[Segments] Segment missing, keeping the previous ones: " + e.getMessage());
+                    return false;
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[Segments] Error reading segments: " + e.getMessage());
+                return false;
+            } finally {
+                opened.forEach(MappedSegment::unmap);   // abiertos en un intento fallido: nadie más los tiene
+            }
+        }
+    }
+
+    public long generation() {
+        return snapshot.generation;
+    }
+
+    /** Upper bound while some book still has an older copy in another segment; for planning only. */
+    @Override
+    public int documentFrequency(String term) {
+        byte[] bytes = MappedSegment.utf8(term);
+        Snapshot current = acquire();
+        try {
+            int df = 0;
+            for (MappedSegment segment : current.segments) {
+                int t = segment.find(bytes);
+                if (t >= 0) df += segment.df(t);
+            }
+            return df;
+        } finally {
+            current.release();
+        }
+    }
+
+    @Override
+    public int[] docIds(String term) {
+        MappedSegment.Postings p = read(term, false);
+        return Arrays.copyOf(p.docIds, p.size);
+    }
+
+    @Override
+    public TermFrequencies termFrequencies(String term) {
+        MappedSegment.Postings p = read(term, false);
+        return new TermFrequencies(Arrays.copyOf(p.docIds, p.size), Arrays.copyOf(p.freqs, p.size));
+    }
+
+    @Override
+    public PostingList postings(String term) {
+        MappedSegment.Postings p = read(term, true);
+        return new PostingList(Arrays.copyOf(p.docIds, p.size), Arrays.copyOf(p.positions, p.size));
+    }
+
+    @Override
+    public int[] allDocIds() {
+        return snapshot.allDocIds;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Snapshot current = snapshot;   // refresh() no la suelta mientras se tiene el monitor
+        long bytes = 0;
+        for (MappedSegment s : current.segments) bytes += s.size();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("generation", current.generation);
+        stats.put("segments", current.segments.length);
+        stats.put("books", current.allDocIds.length);
+        stats.put("mapped_bytes", bytes);
+        stats.put("refreshes", refreshes);
+        return stats;
+    }
+
+    /** Live postings of the term from every segment, in book id order. */
+    private MappedSegment.Postings read(String term, boolean withPositions) {
+        byte[] bytes = MappedSegment.utf8(term);
+        MappedSegment.Postings out = new MappedSegment.Postings(withPositions);
+        int parts = 0;
+        Snapshot current = acquire();
+        try {
+            for (int i = 0; i < current.segments.length; i++) {
+                int t = current.segments[i].find(bytes);
+                if (t < 0) continue;
+                current.segments[i].read(t, current.dead[i], out);
+                parts++;
+            }
+        } finally {
+            current.release();
+        }
+        if (parts > 1) sortByDoc(out);
+        return out;
+    }
+
+    /** The current snapshot, held until {@link Snapshot#release()} so its segments stay mapped. */
+    private Snapshot acquire() {
+        while (true) {
+            Snapshot current = snapshot;
+            if (current.retain()) return current;
+        }
+    }
+
+    /** Each segment's postings are sorted; together they interleave. */
+    private static void sortByDoc(MappedSegment.Postings out) {
+        long[] keys = new long[out.size];
+        for (int i = 0; i < out.size; i++) keys[i] = ((long) out.docIds[i] << 32) | i;
+        Arrays.sort(keys);
+        int[] docIds = new int[out.size];
+        int[] freqs = new int[out.size];
+        int[][] positions = out.positions == null ? null : new int[out.size][];
+        for (int i = 0; i < out.size; i++) {
+            int from = (int) keys[i];
+            docIds[i] = out.docIds[from];
+            freqs[i] = out.freqs[from];
+            if (positions != null) positions[i] = out.positions[from];
+        }
+        out.docIds = docIds;
+        out.freqs = freqs;
+        out.positions = positions;
+    }
+
+    /** The segments of one manifest, oldest first, with the books each one has been superseded in. */
+    private static final class Snapshot {
+        final long generation;
+        final MappedSegment[] segments;
+        /** dead[i]: books that a segment newer than segments[i] also has; null for none */
+        final RoaringBitmap[] dead;
+        final int[] allDocIds;
+        /** Reads in progress, plus one while it is the index's current snapshot */
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Snapshot(long generation, MappedSegment[] segments, RoaringBitmap[] dead, int[] allDocIds) {
+            this.generation = generation;
+            this.segments = segments;
+            this.dead = dead;
+            this.allDocIds = allDocIds;
+            for (MappedSegment s : segments) s.retain();
+        }
+
+        /** False once the snapshot has been let go of completely; the caller takes the new one. */
+        boolean retain() {
+            for (int r = refs.get(); r > 0; r = refs.get()) {
+                if (refs.compareAndSet(r, r + 1)) return true;
+            }
+            return false;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                for (MappedSegment s : segments) s.release();
+            }
+        }
+
+        static Snapshot of(long generation, MappedSegment[] segments) {
+            RoaringBitmap[] dead = new RoaringBitmap[segments.length];
+            RoaringBitmap newer = new RoaringBitmap();
+            for (int i = segments.length - 1; i >= 0; i--) {
+                MappedSegment s = segments[i];
+                int[] ids = new int[s.docCount()];
+                for (int doc = 0; doc < ids.length; doc++) ids[doc] = s.docId(doc);
+                RoaringBitmap mine = RoaringBitmap.bitmapOf(ids);
+                if (RoaringBitmap.intersects(newer, mine)) dead[i] = newer.clone();
+                newer.or(mine);
+            }
+            return new Snapshot(generation, segments, dead, newer.toArray());
+        }
+    }
+}